@@ -0,0 +1,91 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the size and the serialize-and-deserialize time of a batch of
+ * mixed messages encoded as a MessageBatch with the same messages sent as a
+ * serialized List, for batches of 1, 4 and 32 messages.
+ *
+ * Usage, with src and bench compiled together: java MessageBatchBenchmark
+ */
+public class MessageBatchBenchmark {
+
+    private static final int ITERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+
+        for (int size : new int[] {1, 4, 32}) {
+            List<BroadcastHandler.Message> messages = batch(size);
+            byte[] list = serialize(new ArrayList<>(messages));
+            byte[] batch = serialize(new MessageBatch("alice", 1, messages));
+
+            // The first round warms up; the second is reported.
+            double listMicros = 0;
+            double batchMicros = 0;
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    deserialize(serialize(new ArrayList<>(messages)));
+                }
+                listMicros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+
+                start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    deserialize(serialize(new MessageBatch("alice", 1, messages)));
+                }
+                batchMicros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+            }
+
+            System.out.printf("%2d messages: %4d -> %3d bytes, %.1f -> %.1f us%n",
+                    size, list.length, batch.length, listMicros, batchMicros);
+        }
+    }
+
+    /**
+     * @return a batch cycling through GUESS, ACK, DELTA and JOIN messages
+     */
+    private static List<BroadcastHandler.Message> batch(int size) {
+
+        List<BroadcastHandler.Message> messages = new ArrayList<>();
+        int timeStamp = 1000;
+        for (int i = 0; i < size; i++) {
+            timeStamp += 3;
+            switch (i % 4) {
+                case 0:
+                    messages.add(new BroadcastHandler.Message(timeStamp, "alice", "GUESS", "e", i + 1));
+                    break;
+                case 1:
+                    messages.add(new BroadcastHandler.Message(timeStamp, "alice", BroadcastHandler.ACK, null, i + 1));
+                    break;
+                case 2:
+                    PuzzleDelta delta = new PuzzleDelta(i, i + 1, 1200, new int[] {7, 40, 41}, new String[] {"e", "ee", "e"});
+                    messages.add(new BroadcastHandler.Message(timeStamp, "alice", "DELTA", delta, i + 1));
+                    break;
+                default:
+                    messages.add(new BroadcastHandler.Message(timeStamp, "alice", "JOIN", 1, i + 1));
+            }
+        }
+        return messages;
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private MessageBatchBenchmark() {
+        // This class should not be instantiated
+    }
+}
@@ -0,0 +1,127 @@
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares Lamport ordering with a sequencer for groups of 2, 8 and 32
+ * in-process peers over loopback RMI. For each, it reports the latency of
+ * a broadcast until every peer has delivered it, the number of messages
+ * sent on the wire per broadcast, and whether every peer delivered a
+ * concurrent burst in the same order.
+ *
+ * Usage, with src and bench compiled together:
+ * java -DbroadcastFailureTimeoutMs=60000 OrderingBenchmark
+ * The longer failure timeout keeps a busy 32-peer group on a small machine
+ * from suspecting its own slow members.
+ */
+public class OrderingBenchmark {
+
+    private static final int ROUNDS = 200;
+    private static final int BURST = 50;
+    private static final Pattern WIRE_MESSAGES = Pattern.compile("as (\\d+) messages");
+
+    public static void main(String[] args) throws Exception {
+
+        for (int size : new int[] {2, 8, 32}) {
+            for (BroadcastHandler.Ordering ordering : BroadcastHandler.Ordering.values()) {
+                run(size, ordering);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(int size, BroadcastHandler.Ordering ordering) throws Exception {
+
+        BroadcastHandler server = new BroadcastHandler("SERVER");
+        BroadcastHandler[] peers = new BroadcastHandler[size];
+        for (int i = 0; i < size; i++) {
+            peers[i] = new BroadcastHandler("p" + i);
+        }
+        if (ordering == BroadcastHandler.Ordering.SEQUENCER) {
+            server.useSequencer("SERVER", null);
+            for (BroadcastHandler peer : peers) {
+                peer.useSequencer("SERVER", stub(server));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            server.addPeer("p" + i, stub(peers[i]));
+            for (int j = 0; j < size; j++) {
+                peers[i].addPeer("p" + j, stub(peers[j]));
+            }
+        }
+
+        List<List<Object>> delivered = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            delivered.add(new ArrayList<>());
+        }
+        for (int round = 0; round < 20; round++) {
+            peers[round % size].broadcast("GUESS", "warmup" + round);
+            takeFromAll(peers, delivered);
+        }
+        Thread.sleep(200);
+
+        long wireBefore = wireMessages(server, peers);
+        long[] latencies = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            peers[round % size].broadcast("GUESS", "m" + round);
+            takeFromAll(peers, delivered);
+            latencies[round] = System.nanoTime() - start;
+        }
+
+        for (int round = 0; round < BURST; round++) {
+            for (int i = 0; i < size; i++) {
+                peers[i].broadcast("GUESS", "b" + i + "-" + round);
+            }
+        }
+        for (int k = 0; k < BURST * size; k++) {
+            takeFromAll(peers, delivered);
+        }
+        Thread.sleep(300);
+        long wire = wireMessages(server, peers) - wireBefore;
+
+        boolean sameOrder = true;
+        for (int i = 1; i < size; i++) {
+            sameOrder &= delivered.get(i).equals(delivered.get(0));
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-9s n=%2d  median %.2f ms  p99 %.2f ms  %.1f wire msgs/broadcast  same order: %b%n",
+                ordering, size, latencies[ROUNDS / 2] / 1e6, latencies[ROUNDS * 99 / 100] / 1e6,
+                (double) wire / (ROUNDS + BURST * size), sameOrder);
+    }
+
+    private static void takeFromAll(BroadcastHandler[] peers, List<List<Object>> delivered) throws InterruptedException {
+        for (int i = 0; i < peers.length; i++) {
+            delivered.get(i).add(peers[i].takeNextMessage().contents);
+        }
+    }
+
+    /**
+     * @return the messages every handler has sent on the wire, from its
+     *         statistics
+     */
+    private static long wireMessages(BroadcastHandler server, BroadcastHandler[] peers) {
+
+        long total = wireMessages(server);
+        for (BroadcastHandler peer : peers) {
+            total += wireMessages(peer);
+        }
+        return total;
+    }
+
+    private static long wireMessages(BroadcastHandler handler) {
+        Matcher matcher = WIRE_MESSAGES.matcher(handler.getStats());
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static RemoteBroadcastInterface stub(BroadcastHandler handler) throws Exception {
+        return (RemoteBroadcastInterface) RemoteObject.toStub(handler);
+    }
+
+    private OrderingBenchmark() {
+        // This class should not be instantiated
+    }
+}
@@ -0,0 +1,146 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures a transport in one JVM over loopback:
+ * <ul>
+ * <li>the latency of single-message calls to a handler's endpoint</li>
+ * <li>calls per second from 8 concurrent senders</li>
+ * <li>a burst of 6000 broadcasts across three Lamport-ordered peers, in
+ * messages per second and per CPU-second, and whether every peer
+ * delivered them in the same order</li>
+ * <li>the latency of a broadcast until all three peers have delivered it</li>
+ * </ul>
+ *
+ * Usage, with src and bench compiled together: java TransportBenchmark [rmi|nio]
+ */
+public class TransportBenchmark {
+
+    private static final int CALLS = 20000;
+    private static final int WARMUP_CALLS = 2000;
+    private static final int SENDERS = 8;
+    private static final int CALLS_PER_SENDER = 5000;
+    private static final int PEERS = 3;
+    private static final int BURST = 6000;
+    private static final int LATENCY_ROUNDS = 300;
+
+    public static void main(String[] args) throws Exception {
+
+        String name = args.length > 0 ? args[0] : "rmi";
+        Transport transport = name.equals("nio") ? Transport.nio() : Transport.rmi();
+
+        RemoteBroadcastInterface sink = new BroadcastHandler("sink", transport).getEndpoint();
+        long[] latencies = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            sink.receiveBatch(ack("src", i + 1));
+            latencies[i] = System.nanoTime() - start;
+        }
+        long[] measured = Arrays.copyOfRange(latencies, WARMUP_CALLS, CALLS);
+        Arrays.sort(measured);
+        System.out.printf("%s call latency: median %.0f us, p99 %.0f us, p99.9 %.0f us%n", name,
+                measured[measured.length / 2] / 1e3, measured[measured.length * 99 / 100] / 1e3,
+                measured[measured.length * 999 / 1000] / 1e3);
+
+        ExecutorService executor = Executors.newFixedThreadPool(SENDERS);
+        List<Future<?>> senders = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int k = 0; k < SENDERS; k++) {
+            String origin = "s" + k;
+            senders.add(executor.submit(() -> {
+                for (int i = 0; i < CALLS_PER_SENDER; i++) {
+                    sink.receiveBatch(ack(origin, i + 1));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> sender : senders) {
+            sender.get();
+        }
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s call throughput: %.0f calls/s with %d senders%n", name,
+                SENDERS * CALLS_PER_SENDER / seconds, SENDERS);
+
+        BroadcastHandler[] peers = new BroadcastHandler[PEERS];
+        for (int i = 0; i < PEERS; i++) {
+            peers[i] = new BroadcastHandler("p" + i, transport);
+        }
+        for (BroadcastHandler peer : peers) {
+            for (int j = 0; j < PEERS; j++) {
+                peer.addPeer("p" + j, peers[j].getEndpoint());
+            }
+        }
+        burst(name, peers);
+
+        long[] roundTrips = new long[LATENCY_ROUNDS];
+        for (int round = 0; round < LATENCY_ROUNDS; round++) {
+            long sent = System.nanoTime();
+            peers[round % PEERS].broadcast("GUESS", "x" + round);
+            for (BroadcastHandler peer : peers) {
+                peer.takeNextMessage();
+            }
+            roundTrips[round] = System.nanoTime() - sent;
+        }
+        Arrays.sort(roundTrips);
+        System.out.printf("%s broadcast latency (Lamport, %d peers): median %.2f ms, p99 %.2f ms%n", name, PEERS,
+                roundTrips[LATENCY_ROUNDS / 2] / 1e6, roundTrips[LATENCY_ROUNDS * 99 / 100] / 1e6);
+        System.exit(0);
+    }
+
+    /**
+     * Broadcasts a burst from every peer in turn and waits until every peer
+     * has delivered all of it, or a minute has passed.
+     */
+    private static void burst(String name, BroadcastHandler[] peers) throws Exception {
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuBefore = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        for (int m = 0; m < BURST; m++) {
+            peers[m % peers.length].broadcast("GUESS", "m" + m);
+        }
+
+        List<List<Object>> delivered = new ArrayList<>();
+        for (int i = 0; i < peers.length; i++) {
+            delivered.add(new ArrayList<>());
+        }
+        boolean done = false;
+        while (!done && System.nanoTime() - start < 60_000_000_000L) {
+            done = true;
+            for (int i = 0; i < peers.length; i++) {
+                BroadcastHandler.Message message;
+                while ((message = peers[i].getNextMessage()) != null) {
+                    delivered.get(i).add(message.contents);
+                }
+                done &= delivered.get(i).size() == BURST;
+            }
+            if (!done) {
+                Thread.sleep(1);
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double cpuSeconds = (os.getProcessCpuTime() - cpuBefore) / 1e9;
+        boolean sameOrder = true;
+        for (int i = 1; i < peers.length; i++) {
+            sameOrder &= delivered.get(i).equals(delivered.get(0));
+        }
+        System.out.printf("%s broadcast: %d x %d delivered in %.2fs, %.0f msgs/s, %.0f msgs per cpu-second, same order %b%n",
+                name, BURST, peers.length, seconds, BURST / seconds, BURST / cpuSeconds, sameOrder);
+    }
+
+    private static MessageBatch ack(String origin, int sequence) {
+        return new MessageBatch(origin, 1, List.of(new BroadcastHandler.Message(sequence, origin, BroadcastHandler.ACK, null, sequence)));
+    }
+
+    private TransportBenchmark() {
+        // This class should not be instantiated
+    }
+}
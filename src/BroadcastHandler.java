@@ -1,66 +1,881 @@
 import java.io.Serializable;
 import  java.rmi.*;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
+/**
+ * Delivers messages to every peer in the same total order.
+ *
+ * Each message carries the sender's Lamport clock and a sequence number on
+ * the channel from the sender to that receiver. A receiver accepts the
+ * messages of a channel strictly in sequence, which makes every channel
+ * FIFO even if calls overtake each other, and holds accepted messages back
+ * ordered by timestamp and sender. The head of the hold-back queue is
+ * delivered once it is stable: every other peer has sent this peer a
+ * message with a later timestamp, so nothing that should come before it
+ * can still arrive.
+ *
+ * Any message counts as an acknowledgement of everything its sender had
+ * received. When a peer has received messages but not sent anything since,
+ * it sends one ACK to each peer per tick, however many messages it is
+ * acknowledging. ACKs are never delivered.
+ *
+ * A peer that is registered under this handler's own ID receives its own
+ * broadcasts locally, in the same total order as everyone else's.
+ *
+ * A handler that is waiting to join a group only delivers the messages of
+ * the peer that will start it, and holds back everyone else's until the
+ * whole group is installed at once. Otherwise a message could be found
+ * stable against a group that is still missing some of its members.
+ *
+ * Messages are never sent while holding the handler's lock. Each peer has
+ * an outbox drained in order by its own thread, so broadcasting only
+ * queues the message, and a slow or unreachable peer only holds up its own
+ * outbox. The thread sends whatever has queued up, plus anything arriving
+ * within a short window, as one batch in a single call, in the compact
+ * encoding of {@link MessageBatch}. Sequence numbers are assigned as a
+ * batch is sent, so an ACK followed by another message in the same batch
+ * can be dropped without leaving a gap. A batch that cannot be sent is
+ * retried until it goes through or the peer is removed, since dropping it
+ * would leave a gap in the channel that the peer would wait on forever.
+ *
+ * Instead of Lamport ordering, a group can be ordered by a sequencer, one
+ * handler that every peer sends its broadcasts to. The sequencer numbers
+ * each message and forwards it to every peer, which delivers messages in
+ * that order. A broadcast then costs one message to the sequencer and one
+ * to each peer, with no ACKs. A peer that sees a gap in the numbers asks
+ * the sequencer to send the missing messages again from its history.
+ * Messages sent to a single peer are delivered as they arrive in this
+ * mode.
+ *
+ * A peer that has not been heard from for a while, that cannot be reached,
+ * or whose outbox has fallen far behind is suspected to have failed. The
+ * peer that suspects it broadcasts an EVICT message carrying a cut, its
+ * own clock, and every survivor removes the member from the group when
+ * the EVICT message is delivered, at the same point in the total order.
+ * Exactly the member's messages stamped at or before the cut are
+ * delivered, by every survivor:
+ * <ul>
+ * <li>With Lamport ordering, a survivor that learns of the eviction stops
+ * accepting anything from the member, forwards every message from it
+ * that it still has to the rest of the group, and then broadcasts an
+ * EVICT message of its own. Its EVICT follows its forwarded messages on
+ * every channel, so once a survivor has one from every other survivor, it
+ * has every message from the member that any of them had, and stops
+ * waiting on the member for stability. Messages stamped after the cut are
+ * discarded; none of them can have been delivered anywhere, since the
+ * suspecting peer's next message would have had to be stable first.</li>
+ * <li>With a sequencer, only the sequencer suspects peers. The cut is the
+ * position of the EVICT message in the sequence, the sequencer orders
+ * nothing from the member after it, and survivors fetch any messages
+ * they missed before it from the sequencer's history. The other peers
+ * send their heartbeats to the sequencer.</li>
+ * </ul>
+ * A crashed peer therefore holds up the group for about the failure
+ * timeout. Handlers send an ACK as a heartbeat whenever they have sent
+ * nothing for a heartbeat interval.
+ *
+ * Batches go out through whatever transport the peer's endpoint belongs
+ * to, and come in through the transport this handler was exported with,
+ * RMI by default; see {@link Transport}.
+ *
+ * Delivered messages are handed to the consumer through a bounded queue,
+ * which {@link #takeNextMessage()} blocks on until a message is delivered.
+ * While the queue is full, stable messages stay in the hold-back queue.
+ */
 public class BroadcastHandler extends UnicastRemoteObject implements RemoteBroadcastInterface {
+
+    public static final String ACK = "ACK";
+    public static final String RETRANSMIT = "RETRANSMIT";
+    public static final String EVICT = "EVICT";
+
+    /**
+     * How the messages of a group are put in total order.
+     */
+    public enum Ordering { LAMPORT, SEQUENCER }
+
+    // Received messages are acknowledged at most once per tick.
+    private static final long ACK_INTERVAL_MS = 10;
+
+    // At most this many delivered messages wait for the consumer.
+    private static final int DELIVERY_QUEUE_CAPACITY = 256;
+
+    // An outbox waits this long for more messages before sending a batch,
+    // and sends at most this many messages in one call.
+    private static final long BATCH_WINDOW_MS = Long.getLong("broadcastBatchWindowMs", 1);
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("broadcastBatchSize", 128);
+
+    // A sequencer keeps this many messages for retransmission, and a peer
+    // asks for missing messages at most this often.
+    private static final int SEQUENCER_HISTORY_SIZE = 4096;
+    private static final long RETRANSMIT_INTERVAL_MS = 100;
+
+    // With Lamport ordering, a handler keeps this many of the messages it
+    // accepted from each peer, to forward if the peer is evicted.
+    private static final int FORWARD_HISTORY_SIZE = 1024;
+
+    // A handler that has sent nothing for this long sends a heartbeat, and
+    // a peer is suspected once it has not been heard from, or could not be
+    // reached, for this long, or has this many messages waiting to be sent.
+    private static final long HEARTBEAT_INTERVAL_MS = Long.getLong("broadcastHeartbeatMs", 500);
+    private static final long FAILURE_TIMEOUT_MS = Long.getLong("broadcastFailureTimeoutMs", 3000);
+    private static final int MAX_OUTBOX_BACKLOG = Integer.getInteger("broadcastMaxBacklog", 10000);
+
+    // Sending to an unreachable peer is retried with a growing delay.
+    private static final long RETRY_DELAY_MS = 50;
+    private static final long MAX_RETRY_DELAY_MS = 2000;
+
+    // Every outbox numbers its channel in a new epoch, later than that of
+    // any outbox created before it, even by an earlier run.
+    private static final AtomicLong EPOCHS = new AtomicLong(System.currentTimeMillis() * 1000);
+
     private int lamportClock = 0;
-    private final PriorityQueue<Message> messageQueue = new PriorityQueue<>(); //keep messages ordered 
+    private final PriorityQueue<HeldMessage> holdBackQueue = new PriorityQueue<>(); //keep messages ordered
+    private final Queue<Message> deliveryQueue = new ArrayDeque<>();
     private final String peerID;
+    private final RemoteBroadcastInterface endpoint;
     private final ConcurrentHashMap<String, RemoteBroadcastInterface> peers = new ConcurrentHashMap<>();
+    private final Map<String, Outbox> outboxes = new HashMap<>();
+    private final Map<String, Channel> channels = new HashMap<>();
+    private boolean ackPending;
+    private boolean joined = true;
+    private String coordinatorID;
+    private String sequencerID;
+    private Outbox sequencerOutbox;
+    private int sequencerClock;
+    private final Deque<Message> sequencerHistory = new ArrayDeque<>();
+    private final TreeMap<Integer, HeldMessage> sequencedMessages = new TreeMap<>();
+    private int nextSequenced;
+    private long retransmitRequestedAt;
+    private final Map<String, Long> lastHeardAt = new HashMap<>();
+    private final Set<String> suspected = new HashSet<>();
+    private final Set<String> evicted = new HashSet<>();
+    private long heartbeatSentAt;
+    private long messagesSent;
+    private final AtomicLong wireMessages = new AtomicLong();
+    private final AtomicLong acksSent = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private long messagesDelivered;
+    private long holdBackNanos;
+    private long maxHoldBackNanos;
 
+    /**
+     * Creates a handler that receives through the transport set by the
+     * system property broadcastTransport.
+     *
+     * @param peerID the ID of this peer
+     * @throws RemoteException if the handler cannot be exported
+     */
     public BroadcastHandler(String peerID) throws  RemoteException{
+        this(peerID, Transport.configured());
+    }
+
+    /**
+     * Creates a handler that receives through the given transport. Peers
+     * should send to its endpoint, which they can be given by
+     * {@link #getEndpoint()}.
+     *
+     * @param peerID the ID of this peer
+     * @param transport the transport to receive through
+     * @throws RemoteException if the handler cannot be exported
+     */
+    public BroadcastHandler(String peerID, Transport transport) throws  RemoteException{
         super();
         this.peerID = peerID;
+        this.endpoint = transport.export(this);
+
+        ScheduledExecutorService acker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BroadcastHandler-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        acker.scheduleWithFixedDelay(this::tick, ACK_INTERVAL_MS, ACK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Orders the group's messages with Lamport clocks and ACKs, which is
+     * the default.
+     */
+    public synchronized void useLamportOrdering() {
+        sequencerID = null;
+        if (sequencerOutbox != null && !outboxes.containsValue(sequencerOutbox)) {
+            sequencerOutbox.close();
+        }
+        sequencerOutbox = null;
+    }
+
+    /**
+     * Orders the group's messages with a sequencer. Passing this handler's
+     * own ID makes it the sequencer; its numbers carry on from its clock,
+     * so they keep growing on every channel it sends on. Any other handler
+     * delivers from the first numbered message it receives, so it should
+     * switch before the sequencer adds it to the group.
+     *
+     * @param sequencerID the ID of the sequencer
+     * @param sequencer the sequencer, or null if this handler is the sequencer
+     */
+    public synchronized void useSequencer(String sequencerID, RemoteBroadcastInterface sequencer) {
+
+        useLamportOrdering();
+        this.sequencerID = sequencerID;
+
+        sequencedMessages.clear();
+        if (sequencerID.equals(peerID)) {
+            sequencerClock = lamportClock;
+            nextSequenced = sequencerClock + 1;
+        } else {
+            nextSequenced = 0;
+            sequencerOutbox = outboxes.containsKey(sequencerID) ? outboxes.get(sequencerID) : new Outbox(sequencerID, sequencer);
+        }
+    }
+
+    @Override
+    public RemoteBroadcastInterface getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return how the group's messages are ordered
+     */
+    public synchronized Ordering getOrdering() {
+        return sequencerID == null ? Ordering.LAMPORT : Ordering.SEQUENCER;
+    }
+
+    /**
+     * Waits to join a group. Until {@link #joinGroup(Map)} is called, only
+     * the messages of the given peer, which will start the group, are
+     * delivered; the rest are held back.
+     *
+     * @param coordinatorID the peer that will start the group
+     */
+    public synchronized void awaitGroup(String coordinatorID) {
+        this.coordinatorID = coordinatorID;
+        joined = false;
     }
 
+    /**
+     * Adds every member of a group at once and delivers the messages that
+     * were held back until it was installed.
+     *
+     * @param members the members of the group, this handler included
+     */
+    public synchronized void joinGroup(Map<String, RemoteBroadcastInterface> members) {
+        for (Map.Entry<String, RemoteBroadcastInterface> member : members.entrySet()) {
+            addPeer(member.getKey(), member.getValue());
+        }
+        joined = true;
+        deliverStableMessages();
+    }
+
+    /**
+     * Adds a peer to the group, or updates its endpoint. A peer that was
+     * evicted, or that comes back at a different endpoint, is taken to be
+     * a new process: both channels with it start again, since its clock and
+     * sequence numbers do.
+     *
+     * @param peerID the peer to add
+     * @param peer the endpoint to send the peer's messages to
+     */
     public synchronized void addPeer(String peerID, RemoteBroadcastInterface peer) {
-        peers.put(peerID, peer);
+        RemoteBroadcastInterface previous = peers.put(peerID, peer);
+        boolean restarted = evicted.contains(peerID) || (previous != null && !previous.equals(peer));
+        lastHeardAt.remove(peerID);
+        suspected.remove(peerID);
+        evicted.remove(peerID);
+        if (peerID.equals(this.peerID)) {
+            return;
+        }
+
+        if (restarted) {
+            channels.remove(peerID);
+        }
+        Outbox outbox = outboxes.get(peerID);
+        if (outbox != null && restarted) {
+            outbox.close();
+            outbox = null;
+        }
+        if (outbox == null) {
+            outboxes.put(peerID, new Outbox(peerID, peer));
+        }
     }
 
+    /**
+     * Removes a peer from the group and discards anything still waiting to
+     * be sent to it. Messages held back waiting for the peer to acknowledge
+     * them are delivered if nothing else holds them.
+     *
+     * @param peerID the peer to remove
+     */
     public synchronized void removePeer(String peerID) {
         peers.remove(peerID);
+        lastHeardAt.remove(peerID);
+        Outbox outbox = outboxes.remove(peerID);
+        if (outbox != null) {
+            outbox.close();
+        }
+        deliverStableMessages();
     }
 
 
 
+    /**
+     * Queues a message for every peer and returns without waiting for any
+     * of them to receive it.
+     *
+     * @param type the type of the message
+     * @param contents the contents of the message
+     * @throws RemoteException never; kept so callers need not change if
+     *         sending becomes synchronous again
+     */
     public synchronized void broadcast(String type, Object contents) throws  RemoteException{
-        lamportClock ++;
-        Message msg = new Message(lamportClock, peerID, type, contents);
-        for(RemoteBroadcastInterface peer : peers.values()){
-            peer.receive(msg);
+
+        messagesSent++;
+        if (sequencerID != null) {
+            Message message = new Message(0, peerID, type, contents, 0);
+            if (sequencerOutbox == null) {
+                order(message);
+            } else {
+                sequencerOutbox.add(message);
+                heartbeatSentAt = System.currentTimeMillis();
+            }
+            return;
         }
-    
-    
+
+        stamp(type, contents, peers.keySet());
+        if (!outboxes.isEmpty()) {
+            // This message acknowledges everything received so far.
+            ackPending = false;
+            heartbeatSentAt = System.currentTimeMillis();
         }
+    }
 
 
-        @Override
-    public synchronized  void receive(Message message) throws RemoteException{
+    /**
+     * Queues a message for a single peer instead of every peer, for replies
+     * that only the requesting peer needs.
+     *
+     * @param peerID the peer to send the message to
+     * @param type the type of the message
+     * @param contents the contents of the message
+     * @throws RemoteException never; see {@link #broadcast(String, Object)}
+     */
+    public synchronized void send(String peerID, String type, Object contents) throws RemoteException {
+
+        if (!peers.containsKey(peerID)) {
+            return;
+        }
+        stamp(type, contents, Collections.singleton(peerID));
+        messagesSent++;
+    }
+
+    /**
+     * Receives several messages from one peer in a single call. They are
+     * accepted as if received one at a time, in order.
+     *
+     * @param batch the messages, in the order they were sent
+     * @throws RemoteException if a remote communication error occurs
+     */
+    @Override
+    public synchronized void receiveBatch(MessageBatch batch) throws RemoteException {
+
+        lastHeardAt.put(batch.getOrigin(), System.currentTimeMillis());
+
+        // A new outbox to this handler starts its sequence numbers again; a
+        // batch from an outbox it replaced is discarded.
+        Channel channel = channels.computeIfAbsent(batch.getOrigin(), sender -> new Channel());
+        if (batch.getEpoch() < channel.epoch) {
+            return;
+        } else if (batch.getEpoch() > channel.epoch) {
+            channel.epoch = batch.getEpoch();
+            channel.nextSequence = 1;
+            channel.early.clear();
+        }
+
+        for (Message message : batch.getMessages()) {
+            accept(batch.getOrigin(), message);
+        }
+        deliverStableMessages();
+    }
+
+    /**
+     * Accepts a message into the channel from the peer that sent it, and
+     * every message after it that arrived early. The peer is the message's
+     * sender, except for messages a sequencer forwards. Must be called while
+     * holding the handler's lock.
+     *
+     * @param origin the peer the message came from
+     * @param message the message
+     */
+    private void accept(String origin, Message message) {
+
         lamportClock = Math.max(lamportClock, message.timeStamp) + 1;
-        messageQueue.add(message);
-        processQueue();
+
+        Channel channel = channels.computeIfAbsent(origin, sender -> new Channel());
+        if (message.sequence < channel.nextSequence) {
+            return;
+        }
+        channel.early.put(message.sequence, message);
+
+        Message next;
+        while ((next = channel.early.remove(channel.nextSequence)) != null) {
+            channel.nextSequence++;
+            if (sequencerID == null) {
+                hold(origin, next);
+                continue;
+            }
+
+            channel.lastTimestamp = next.timeStamp;
+            if (ACK.equals(next.type)) {
+                continue;
+            }
+            if (origin.equals(sequencerID)) {
+                if (nextSequenced == 0) {
+                    nextSequenced = next.timeStamp;
+                }
+                if (next.timeStamp >= nextSequenced) {
+                    sequencedMessages.put(next.timeStamp, new HeldMessage(next));
+                }
+            } else if (sequencerOutbox != null) {
+                deliver(new HeldMessage(next));
+            } else if (suspected.contains(origin)) {
+                // Nothing from an evicted peer is ordered after its EVICT.
+                continue;
+            } else if (RETRANSMIT.equals(next.type)) {
+                retransmit(origin, (Integer) next.contents);
+            } else {
+                order(next);
+            }
+        }
+    }
+
+    /**
+     * Holds back a message accepted in order on the channel from a peer,
+     * with Lamport ordering. A message the peer forwards for an evicted
+     * member is held back as the member's, unless it has already arrived
+     * or was stamped after the cut. Nothing more is accepted from a peer
+     * once this handler has forwarded what it had from it. Must be called
+     * while holding the handler's lock.
+     *
+     * @param origin the peer the message came from
+     * @param message the message
+     */
+    private void hold(String origin, Message message) {
+
+        if (suspected.contains(origin)) {
+            return;
+        }
+        Channel channel = channels.computeIfAbsent(message.senderID, sender -> new Channel());
+        if (ACK.equals(message.type)) {
+            channel.lastTimestamp = Math.max(channel.lastTimestamp, message.timeStamp);
+            return;
+        }
+        if (message.timeStamp <= channel.lastTimestamp || message.timeStamp > channel.cut
+                || evicted.contains(message.senderID)) {
+            return;
+        }
+
+        channel.lastTimestamp = message.timeStamp;
+        channel.history.addLast(message);
+        if (channel.history.size() > FORWARD_HISTORY_SIZE) {
+            channel.history.removeFirst();
+        }
+        holdBackQueue.add(new HeldMessage(message));
+        ackPending = true;
+
+        if (EVICT.equals(message.type)) {
+            Eviction eviction = (Eviction) message.contents;
+            if (!peerID.equals(eviction.member)) {
+                Channel evicting = channels.computeIfAbsent(eviction.member, sender -> new Channel());
+                if (origin.equals(message.senderID)) {
+                    evicting.flushedBy.add(origin);
+                }
+                cut(eviction.member, eviction.cut);
+                if (!suspected.contains(eviction.member)) {
+                    flush(eviction.member);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards every message from a member stamped after a cut, if it is
+     * earlier than any cut seen for the member before. Must be called while
+     * holding the handler's lock.
+     */
+    private void cut(String member, int cut) {
+
+        Channel channel = channels.computeIfAbsent(member, sender -> new Channel());
+        if (cut < channel.cut) {
+            channel.cut = cut;
+            holdBackQueue.removeIf(held -> held.message.senderID.equals(member) && held.message.timeStamp > cut);
+        }
+    }
+
+    /**
+     * Stops accepting anything from a member that is being evicted, with
+     * Lamport ordering, forwards every message from it that this handler
+     * still has to the rest of the group, and then broadcasts an EVICT
+     * message of its own, which tells each peer that everything this
+     * handler had from the member has been sent to it. Must be called while
+     * holding the handler's lock.
+     */
+    private void flush(String member) {
+
+        suspected.add(member);
+        int cut = lamportClock;
+        cut(member, cut);
+
+        Channel channel = channels.get(member);
+        if (channel.history.size() == FORWARD_HISTORY_SIZE) {
+            System.err.println("Can only forward the last " + FORWARD_HISTORY_SIZE + " messages from " + member);
+        }
+        for (Map.Entry<String, Outbox> outbox : outboxes.entrySet()) {
+            if (outbox.getKey().equals(member)) {
+                continue;
+            }
+            for (Message message : channel.history) {
+                if (message.timeStamp <= channel.cut) {
+                    outbox.getValue().add(message);
+                }
+            }
+        }
+
+        try {
+            broadcast(EVICT, new Eviction(member, cut));
+        } catch (RemoteException e) {
+            // broadcast only queues the message.
+        }
     }
 
-    private void processQueue(){
-        while(!messageQueue.isEmpty()){
-            Message head = messageQueue.poll();
-                deliver(head);
+    /**
+     * @return whether every other survivor has sent its EVICT message for
+     *         a member, and with it every message from the member it had
+     */
+    private boolean isFlushed(String member) {
+
+        Set<String> flushedBy = channels.get(member).flushedBy;
+        for (String other : peers.keySet()) {
+            if (!other.equals(peerID) && !other.equals(member) && !suspected.contains(other)
+                    && !flushedBy.contains(other)) {
+                return false;
             }
-            
         }
+        return true;
+    }
+
+    /**
+     * Numbers a message as the sequencer and forwards it to every peer.
+     * Must be called while holding the handler's lock.
+     */
+    private void order(Message message) {
 
-        public synchronized Message getNextMessage() {
-            return messageQueue.poll();
+        Message ordered = new Message(++sequencerClock, message.senderID, message.type, message.contents, 0);
+        lamportClock = Math.max(lamportClock, sequencerClock);
+
+        sequencerHistory.addLast(ordered);
+        if (sequencerHistory.size() > SEQUENCER_HISTORY_SIZE) {
+            sequencerHistory.removeFirst();
         }
-    
 
+        for (Outbox outbox : outboxes.values()) {
+            outbox.add(ordered);
+        }
+        if (peers.containsKey(peerID)) {
+            sequencedMessages.put(ordered.timeStamp, new HeldMessage(ordered));
+        } else if (EVICT.equals(ordered.type)) {
+            evict(((Eviction) ordered.contents).member);
+        }
+    }
+
+    /**
+     * Sends a peer every message the sequencer still has from the given
+     * number on. Must be called while holding the handler's lock.
+     */
+    private void retransmit(String target, int from) {
 
-    public  void deliver(Message head){
-        System.out.println("Delivering:" + head.contents);
+        Outbox outbox = outboxes.get(target);
+        if (outbox == null) {
+            return;
+        }
+        if (!sequencerHistory.isEmpty() && sequencerHistory.peekFirst().timeStamp > from) {
+            System.err.println("Cannot retransmit messages before " + sequencerHistory.peekFirst().timeStamp + " to " + target);
+        }
+        for (Message message : sequencerHistory) {
+            if (message.timeStamp >= from) {
+                outbox.add(message);
+            }
+        }
+    }
+
+    /**
+     * @return the next message in the total order, or null if no message
+     *         is ready to be delivered
+     */
+    public synchronized Message getNextMessage() {
+        Message message = deliveryQueue.poll();
+        deliverStableMessages();
+        return message;
+    }
+
+    /**
+     * Waits for the next message in the total order. The waiting thread is
+     * woken as soon as a message is delivered, and uses no CPU meanwhile.
+     *
+     * @return the next message in the total order
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized Message takeNextMessage() throws InterruptedException {
+
+        while (deliveryQueue.isEmpty()) {
+            wait();
+        }
+        Message message = deliveryQueue.poll();
+        deliverStableMessages();
+        return message;
+    }
+
+    /**
+     * @return the number of messages delivered and how long they were held
+     *         back, and the number of messages and ACKs sent per delivered
+     *         message
+     */
+    public synchronized String getStats() {
+
+        double meanHoldBack = messagesDelivered == 0 ? 0 : holdBackNanos / 1e6 / messagesDelivered;
+        double acksPerMessage = messagesDelivered == 0 ? 0 : (double) acksSent.get() / messagesDelivered;
+        return String.format("Delivered %d messages, held back %.2f ms on average and %.2f ms at most; "
+                + "sent %d messages and %d ACKs as %d messages in %d batches, %.2f ACKs per delivered message",
+                messagesDelivered, meanHoldBack, maxHoldBackNanos / 1e6, messagesSent, acksSent.get(),
+                wireMessages.get(), batchesSent.get(), acksPerMessage);
+    }
+
+    /**
+     * Stamps a message with the next clock value and queues it in the
+     * outbox of each of the given peers. The message for this handler's own
+     * ID is held back locally instead. Must be called while holding the
+     * handler's lock.
+     */
+    private void stamp(String type, Object contents, Collection<String> targets) {
+
+        lamportClock ++;
+        Message message = new Message(lamportClock, peerID, type, contents, 0);
+
+        for (String target : targets) {
+            if (target.equals(peerID)) {
+                if (!ACK.equals(type)) {
+                    holdBackQueue.add(new HeldMessage(message));
+                }
+                continue;
+            }
+            outboxes.get(target).add(message);
+        }
+
+        deliverStableMessages();
+    }
+
+    /**
+     * Runs once per tick. With Lamport ordering, queues one ACK for every
+     * peer if anything was received, or nothing was sent for a heartbeat
+     * interval, since this handler last sent a message to all of them.
+     * With a sequencer, asks it again for the first missing message if
+     * there is a gap, and sends it a heartbeat. Otherwise, suspects any
+     * peer that seems to have failed.
+     */
+    private synchronized void tick() {
+
+        long now = System.currentTimeMillis();
+        boolean heartbeatDue = now - heartbeatSentAt >= HEARTBEAT_INTERVAL_MS;
+
+        if (sequencerOutbox != null) {
+            if (!sequencedMessages.isEmpty() && sequencedMessages.firstKey() > nextSequenced
+                    && now - retransmitRequestedAt >= RETRANSMIT_INTERVAL_MS) {
+                retransmitRequestedAt = now;
+                sequencerOutbox.add(new Message(0, peerID, RETRANSMIT, nextSequenced, 0));
+            }
+            if (heartbeatDue) {
+                sequencerOutbox.add(new Message(0, peerID, ACK, null, 0));
+                heartbeatSentAt = now;
+            }
+            return;
+        }
+
+        // Only the sequencer, or with Lamport ordering a member of the group,
+        // is sent anything it could judge its peers by.
+        boolean judge = sequencerID == null ? peers.containsKey(peerID) : sequencerID.equals(peerID);
+        if (!judge) {
+            heartbeatDue = false;
+        }
+
+        if ((ackPending || heartbeatDue) && !outboxes.isEmpty() && sequencerID == null) {
+            stamp(ACK, null, peers.keySet());
+            ackPending = false;
+            heartbeatSentAt = now;
+        }
+        if (!judge) {
+            return;
+        }
+
+        for (String member : new ArrayList<>(peers.keySet())) {
+            String reason = member.equals(peerID) || suspected.contains(member) ? null : failure(member, now);
+            if (reason != null) {
+                suspect(member, reason);
+            }
+        }
+    }
+
+    /**
+     * A peer is only suspected of being silent once it has been heard from,
+     * since it may still be joining the group; one that cannot be reached
+     * at all is suspected anyway.
+     *
+     * @return why a peer seems to have failed, or null if it does not
+     */
+    private String failure(String member, long now) {
+
+        long silentFor = now - lastHeardAt.getOrDefault(member, now);
+        if (silentFor > FAILURE_TIMEOUT_MS) {
+            return "not heard from for " + silentFor + " ms";
+        }
+
+        Outbox outbox = outboxes.get(member);
+        if (outbox == null) {
+            return null;
+        }
+        long failingFor = outbox.failingSince == 0 ? 0 : now - outbox.failingSince;
+        if (failingFor > FAILURE_TIMEOUT_MS) {
+            return "unreachable for " + failingFor + " ms";
+        }
+        if (outbox.queue.size() > MAX_OUTBOX_BACKLOG) {
+            return outbox.queue.size() + " messages behind";
+        }
+        return null;
+    }
+
+    /**
+     * Asks the group to evict a peer that seems to have failed. With a
+     * sequencer, this handler is the sequencer, and the EVICT message is
+     * ordered at once. Must be called while holding the handler's lock.
+     */
+    private void suspect(String member, String reason) {
+
+        System.err.println(peerID + " suspects " + member + " has failed: " + reason);
+        if (sequencerID == null) {
+            flush(member);
+        } else {
+            suspected.add(member);
+            try {
+                broadcast(EVICT, new Eviction(member, sequencerClock));
+            } catch (RemoteException e) {
+                // broadcast only queues the message.
+            }
+        }
+        deliverStableMessages();
+    }
+
+    /**
+     * Removes an evicted peer from the group. Must be called while holding
+     * the handler's lock.
+     */
+    private void evict(String member) {
+
+        suspected.add(member);
+        evicted.add(member);
+        peers.remove(member);
+        lastHeardAt.remove(member);
+        Channel channel = channels.get(member);
+        if (channel != null) {
+            channel.history.clear();
+        }
+        Outbox outbox = outboxes.remove(member);
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Moves every deliverable message to the delivery queue, as long as
+     * there is room: stable messages at the head of the hold-back queue, or
+     * with a sequencer, messages numbered one after another. Must be called
+     * while holding the handler's lock.
+     */
+    private void deliverStableMessages() {
+
+        while (!holdBackQueue.isEmpty() && deliveryQueue.size() < DELIVERY_QUEUE_CAPACITY
+                && isStable(holdBackQueue.peek().message)) {
+            deliver(holdBackQueue.poll());
+        }
+
+        while (!sequencedMessages.isEmpty() && deliveryQueue.size() < DELIVERY_QUEUE_CAPACITY
+                && sequencedMessages.firstKey() == nextSequenced) {
+            deliver(sequencedMessages.pollFirstEntry().getValue());
+            nextSequenced++;
+        }
+    }
+
+    /**
+     * Hands a message to the consumer and wakes it. Must be called while
+     * holding the handler's lock.
+     */
+    private void deliver(HeldMessage held) {
+
+        if (evicted.contains(held.message.senderID)) {
+            return;
+        }
+        if (EVICT.equals(held.message.type)) {
+            String member = ((Eviction) held.message.contents).member;
+            if (evicted.contains(member)) {
+                // Another survivor's EVICT message for it came first.
+                return;
+            }
+            if (peerID.equals(member)) {
+                System.err.println(peerID + " was evicted from the group by " + held.message.senderID);
+                evicted.add(member);
+            } else {
+                evict(member);
+            }
+        }
+
+        long heldFor = System.nanoTime() - held.receivedAt;
+        holdBackNanos += heldFor;
+        maxHoldBackNanos = Math.max(maxHoldBackNanos, heldFor);
+        messagesDelivered++;
+        deliveryQueue.add(held.message);
+        notifyAll();
+    }
+
+    /**
+     * A message is stable once every other peer has sent this peer a message
+     * with a later timestamp. Channels are FIFO and clocks only grow, so no
+     * message with an earlier timestamp can arrive from any of them. The
+     * sender itself is skipped, since its later messages all have later
+     * timestamps. A peer that is being evicted is no longer waited on once
+     * every survivor has forwarded what it had from it. Until the group is
+     * installed, only the coordinator's messages can be stable.
+     */
+    private boolean isStable(Message message) {
+
+        if (!joined && !message.senderID.equals(coordinatorID)) {
+            return false;
+        }
+        for (String member : peers.keySet()) {
+            if (member.equals(peerID) || member.equals(message.senderID)) {
+                continue;
+            }
+            Channel channel = channels.get(member);
+            boolean caughtUp = channel != null && channel.lastTimestamp > message.timeStamp;
+            if (!caughtUp && !(suspected.contains(member) && isFlushed(member))) {
+                return false;
+            }
+        }
+        return true;
     }
 
 
@@ -71,12 +886,22 @@ public class BroadcastHandler extends UnicastRemoteObject implements RemoteBroad
         public final String senderID;
         public final String type; //indicates what command to do
         public final Object contents;
+        public final int sequence; //position on the channel from sender to receiver
 
-        public Message(int t, String s, String ty, Object c){
-            timeStamp = t; 
-            senderID = s; 
-            type = ty; 
+        public Message(int t, String s, String ty, Object c, int seq){
+            timeStamp = t;
+            senderID = s;
+            type = ty;
             contents = c;
+            sequence = seq;
+        }
+
+        /**
+         * @param seq the position on the channel the message is sent on
+         * @return a copy of the message with the given sequence number
+         */
+        public Message withSequence(int seq){
+            return new Message(timeStamp, senderID, type, contents, seq);
         }
 
         @Override
@@ -88,5 +913,172 @@ public class BroadcastHandler extends UnicastRemoteObject implements RemoteBroad
         }
 
     }
-    
+
+    /**
+     * The contents of an EVICT message: the member to evict, and the cut,
+     * after which none of the member's messages are delivered.
+     */
+    public static class Eviction implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final String member;
+        public final int cut;
+
+        public Eviction(String member, int cut) {
+            this.member = member;
+            this.cut = cut;
+        }
+
+        @Override
+        public String toString() {
+            return member + " after " + cut;
+        }
+    }
+
+    /**
+     * The receiving end of the channel from one sender: the epoch of the
+     * sender's outbox, the next sequence number expected, messages that
+     * arrived ahead of it, and the timestamp of the last message accepted
+     * in order. With Lamport ordering, also the last messages accepted
+     * from the sender, whether sent by it or forwarded, and if it is being
+     * evicted, the cut and the survivors that have forwarded what they had
+     * from it.
+     */
+    private static class Channel {
+        private long epoch;
+        private int nextSequence = 1;
+        private int lastTimestamp;
+        private final Map<Integer, Message> early = new HashMap<>();
+        private final Deque<Message> history = new ArrayDeque<>();
+        private int cut = Integer.MAX_VALUE;
+        private final Set<String> flushedBy = new HashSet<>();
+    }
+
+    /**
+     * A message in the hold-back queue and when it was accepted.
+     */
+    private static class HeldMessage implements Comparable<HeldMessage> {
+        private final Message message;
+        private final long receivedAt = System.nanoTime();
+
+        private HeldMessage(Message message) {
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(HeldMessage other) {
+            return message.compareTo(other.message);
+        }
+    }
+
+    /**
+     * The messages waiting to be sent to one peer, and the thread that
+     * numbers and sends them in order.
+     */
+    private class Outbox implements Runnable {
+        private final String target;
+        private final RemoteBroadcastInterface peer;
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        private final Thread worker;
+        private final long epoch = EPOCHS.incrementAndGet();
+        private int sequence;
+        private volatile boolean closed;
+        private volatile long failingSince;
+
+        private Outbox(String target, RemoteBroadcastInterface peer) {
+            this.target = target;
+            this.peer = peer;
+            this.worker = new Thread(this, "BroadcastHandler-" + peerID + "-to-" + target);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        private void add(Message message) {
+            queue.add(message);
+        }
+
+        private void close() {
+            closed = true;
+            worker.interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    send(number(collect()));
+                }
+            } catch (InterruptedException e) {
+                // The peer was removed.
+            }
+        }
+
+        /**
+         * Waits for a message, then collects whatever else is queued or
+         * arrives within the batch window, up to the batch size.
+         */
+        private List<Message> collect() throws InterruptedException {
+
+            List<Message> batch = new ArrayList<>();
+            batch.add(queue.take());
+            queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS);
+            while (batch.size() < MAX_BATCH_SIZE) {
+                Message next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+            }
+            return batch;
+        }
+
+        /**
+         * Drops every ACK that another message in the batch follows, since
+         * the later message acknowledges at least as much, and numbers the
+         * rest in order.
+         */
+        private List<Message> number(List<Message> batch) {
+
+            List<Message> numbered = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Message message = batch.get(i);
+                if (ACK.equals(message.type)) {
+                    if (i < batch.size() - 1) {
+                        continue;
+                    }
+                    acksSent.incrementAndGet();
+                }
+                numbered.add(message.withSequence(++sequence));
+            }
+            wireMessages.addAndGet(numbered.size());
+            return numbered;
+        }
+
+        private void send(List<Message> batch) throws InterruptedException {
+
+            long delay = RETRY_DELAY_MS;
+            while (!closed) {
+                try {
+                    peer.receiveBatch(new MessageBatch(peerID, epoch, batch));
+                    batchesSent.incrementAndGet();
+                    failingSince = 0;
+                    return;
+                } catch (RemoteException e) {
+                    if (failingSince == 0) {
+                        failingSince = System.currentTimeMillis();
+                    }
+                    if (delay == RETRY_DELAY_MS) {
+                        System.err.println("Could not reach " + target + ", retrying: " + e.getMessage());
+                    }
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+                }
+            }
+        }
+    }
+
 }
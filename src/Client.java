@@ -1,11 +1,15 @@
 import java.rmi.*;
 import java.rmi.server.*;
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class Client extends UnicastRemoteObject implements RemoteBroadcastInterface {
 
+    private static final int WORD_CACHE_SIZE = 1024;
+    private static final long DICTIONARY_CHECK_INTERVAL_MS = 5000;
+
     WordRepositoryInterface wordRepo;
     private BroadcastHandler broadcastHandler;
     private CrissCrossPuzzleInterface server;
@@ -13,8 +17,19 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
     private Integer gameID = -1;
     private volatile Boolean gameOverFlag = false;
     private volatile Boolean gameStarted = false;
-    private char[][] currentPuzzle;
+    private PuzzleGrid currentPuzzle;
     private PuzzleObject puzzle;
+    private WordFilter wordFilter;
+    private long dictionaryCheckedAt;
+    // Guards the word cache, the filter and when it was checked; never held
+    // across a call to the repository.
+    private final Object wordCacheLock = new Object();
+    private final Map<String, Boolean> wordCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > WORD_CACHE_SIZE;
+        }
+    };
 
     public Client(String username) throws RemoteException {
         super();
@@ -56,8 +71,13 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
     }
 
     @Override
-    public void receive(BroadcastHandler.Message message) throws RemoteException {
-        broadcastHandler.receive(message);
+    public void receiveBatch(MessageBatch batch) throws RemoteException {
+        broadcastHandler.receiveBatch(batch);
+    }
+
+    @Override
+    public RemoteBroadcastInterface getEndpoint() {
+        return broadcastHandler.getEndpoint();
     }
 
     private void showMainMenu() {
@@ -99,7 +119,9 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
             System.out.println("Enter desired number of players");
             int numOfPlayers = Integer.parseInt(System.console().readLine());
 
-            server.startGame(username, numWords, numOfPlayers); // fix
+            server.startGame(username, numWords, numOfPlayers, System.getProperty("orderingMode", "LAMPORT")); // fix
+            useGameOrdering(1);
+            broadcastHandler.awaitGroup("SERVER");
             broadcastHandler.broadcast("JOIN", gameID);
             waitForGameStart();
         } catch (Exception e) {
@@ -114,17 +136,12 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
         int targetGameID = Integer.parseInt(System.console().readLine());
         try {
             if (!server.isGameReady(targetGameID)) { // Fix condition
+                useGameOrdering(targetGameID);
+                broadcastHandler.awaitGroup("SERVER");
                 if (server.joinGame(targetGameID, username)) {
                     gameID = targetGameID;
 
-
-                    //Need help here
-                    char[][] puzzleSlave = server.getInitialPuzzle(gameID);
-                    this.puzzle = new PuzzleObject(gameID);
-                    this.puzzle.initPuzzleSlave(puzzleSlave);
-
-
-
+                    // The replica is built by joinPeers when the game starts.
                     broadcastHandler.broadcast("JOIN", gameID);
                     waitForGameStart();
                 }
@@ -136,6 +153,23 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
         }
     }
 
+    /**
+     * Orders this player's messages the way the game does: through the
+     * server if it is the game's sequencer, or with Lamport clocks.
+     *
+     * @param targetGameID the ID of the game
+     * @throws RemoteException if the server cannot be reached
+     */
+    private void useGameOrdering(Integer targetGameID) throws RemoteException {
+
+        RemoteBroadcastInterface sequencer = server.getSequencer(targetGameID);
+        if (sequencer == null) {
+            broadcastHandler.useLamportOrdering();
+        } else {
+            broadcastHandler.useSequencer("SERVER", sequencer);
+        }
+    }
+
     private void waitForGameStart() throws InterruptedException {
         synchronized (this) {
             while (!gameOverFlag && !gameStarted) {
@@ -198,14 +232,18 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
 
  
 
+    /**
+     * Processes delivered messages until the game is over, blocking while
+     * there are none.
+     */
     private void processMessages()  {
         
         while (!gameOverFlag) {
             try{
-            BroadcastHandler.Message msg = broadcastHandler.getNextMessage();
-            if (msg != null){
-                 processMessage(msg);
-            }
+            processMessage(broadcastHandler.takeNextMessage());
+        }
+        catch (InterruptedException e) {
+            return;
         }
         catch (RemoteException e) {
             System.err.println("Remote connection error: " + e.getMessage());
@@ -224,8 +262,15 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
             case "GUESS": processGuess(msg); break;
             case "STATE": updateState(msg); break;
             case "JOIN": handlePlayerJoin(msg); break;
-            case "GAMEOVER": System.out.println(msg.contents); break;
+            case BroadcastHandler.EVICT: handlePlayerEvicted(msg); break;
+            case "DELTA": processDelta(msg); break;
+            case "SYNC": processSync(msg); break;
+            case "GAMEOVER":
+                System.out.println(msg.contents);
+                System.out.println(broadcastHandler.getStats());
+                break;
             case "GAMESTART":
+            joinPeers((Integer) msg.contents);
             synchronized (this) {
                 gameStarted = true;
                 notifyAll();
@@ -246,14 +291,142 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
         else{
             solved = puzzle.guessWord(msg.senderID, guess);
         }
-        currentPuzzle = puzzle.getPuzzleSlaveCopy();
+        currentPuzzle = puzzle.getPuzzleGrid();
         renderPuzzle();
+        saveSnapshot();
         if(solved || puzzle.getGuessCounter() <= 0){
             gameOverFlag = true;
+            deleteSnapshot();
             broadcastHandler.broadcast("GAMEOVER", "Game Over! Solved: " + solved);
+            System.out.println(broadcastHandler.getStats());
+        }
+    }
+
+    /**
+     * Joins the group of players once the game starts, so that guesses are
+     * broadcast to every player, this one included, and delivered to all of
+     * them in the same order. This is the only place a player builds its
+     * replica of the puzzle, on the message thread, before any guess can be
+     * delivered to it; the thread that joined the game waits for it in
+     * waitForGameStart. A player whose puzzle was restored from a snapshot
+     * may have missed guesses, so it asks another player for the cells
+     * revealed since its version.
+     *
+     * @param startedGameID the ID of the game that started
+     * @throws RemoteException if the server cannot be reached
+     */
+    private void joinPeers(Integer startedGameID) throws RemoteException {
+
+        Map<String, RemoteBroadcastInterface> players = server.getPlayerReferences();
+        broadcastHandler.joinGroup(players);
+
+        if (puzzle == null) {
+            gameID = startedGameID;
+            PuzzleGrid initialPuzzle = server.getInitialPuzzle(gameID);
+            puzzle = restoreSnapshot(initialPuzzle);
+            if (puzzle == null) {
+                puzzle = new PuzzleObject(gameID, initialPuzzle, Constants.DIFFICULTY_FACTOR);
+            }
+        }
+
+        if (puzzle.getVersion() > 0) {
+            for (String player : players.keySet()) {
+                if (!player.equals(username)) {
+                    broadcastHandler.send(player, "SYNC", puzzle.getVersion());
+                    break;
+                }
+            }
         }
     }
 
+    /**
+     * Applies the cells another peer sent in answer to a SYNC. Guesses
+     * themselves are never sent as deltas, since every peer applies every
+     * GUESS in the same order. A delta this peer already has is ignored.
+     * If the delta starts after this peer's version, some guesses were
+     * missed, so the sender is asked for everything since this peer's
+     * version instead.
+     *
+     * @param msg the DELTA message
+     * @throws RemoteException if the sender cannot be reached
+     */
+    private void processDelta(BroadcastHandler.Message msg) throws RemoteException {
+        PuzzleDelta delta = (PuzzleDelta) msg.contents;
+        int version = puzzle.getVersion();
+        if(!puzzle.applyDelta(delta)){
+            broadcastHandler.send(msg.senderID, "SYNC", version);
+        }
+        else if(puzzle.getVersion() != version){
+            currentPuzzle = puzzle.getPuzzleGrid();
+            renderPuzzle();
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Saves a snapshot of the puzzle to local disk, so that the game can be
+     * picked up again if this client crashes.
+     */
+    private void saveSnapshot() {
+        try {
+            puzzle.saveSnapshot(snapshotPath());
+        } catch (IOException e) {
+            System.err.println("Could not save game snapshot: " + e.getMessage());
+        }
+    }
+
+    private void deleteSnapshot() {
+        try {
+            Files.deleteIfExists(snapshotPath());
+        } catch (IOException e) {
+            System.err.println("Could not delete game snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the puzzle from the local snapshot left by an earlier run, if
+     * it is of the game being joined. Any guesses made since the snapshot
+     * was saved are caught up through the usual DELTA and SYNC messages.
+     *
+     * @param initialPuzzle the puzzle of the game being joined
+     * @return the restored puzzle, or null if there is no snapshot of this game
+     */
+    private PuzzleObject restoreSnapshot(PuzzleGrid initialPuzzle) {
+
+        if (!Files.exists(snapshotPath())) {
+            return null;
+        }
+
+        try {
+            PuzzleObject restored = PuzzleObject.loadSnapshot(snapshotPath());
+            if (restored.getGameID() != gameID
+                    || !restored.getPuzzleGrid().getLetters().equals(initialPuzzle.getLetters())) {
+                return null;
+            }
+            System.out.println("Restored game from local snapshot at version " + restored.getVersion());
+            return restored;
+
+        } catch (IOException e) {
+            System.err.println("Could not restore game snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Path snapshotPath() {
+        return Paths.get(username + ".snapshot");
+    }
+
+    /**
+     * Answers a peer that fell behind with every cell revealed since the
+     * version it reported.
+     *
+     * @param msg the SYNC message holding the peer's version
+     * @throws RemoteException if the peer cannot be reached
+     */
+    private void processSync(BroadcastHandler.Message msg) throws RemoteException {
+        broadcastHandler.send(msg.senderID, "DELTA", puzzle.getDeltaSince((Integer) msg.contents));
+    }
+
     private void updateState(BroadcastHandler.Message msg) {
        // this.currentPuzzle = (char[][]) msg.contents;
        System.out.println(msg.contents);
@@ -264,16 +437,32 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
         System.out.println("Player: " + msg.senderID + " has joined the game");
     }
 
-        /**
-     * Prints the given puzzle to the console.
+    /**
+     * Reports a player that was evicted from the group because it seemed to
+     * have failed, and removes it from the game on the server. Every
+     * remaining player does this; removing a player twice is harmless.
      *
-     * @param puzzle the 2D array to print
+     * @param msg the EVICT message, whose contents names the evicted player
+     * @throws RemoteException if the server cannot be reached
+     */
+    private void handlePlayerEvicted(BroadcastHandler.Message msg) throws RemoteException {
+        String player = ((BroadcastHandler.Eviction) msg.contents).member;
+        if (player.equals(username)) {
+            System.out.println("You were disconnected from the game");
+            return;
+        }
+        System.out.println("Player: " + player + " was disconnected from the game");
+        server.playerQuit(gameID, player);
+    }
+
+        /**
+     * Prints the current puzzle to the console.
      */
     private void renderPuzzle() {
 
-        for (int i = 0; i < currentPuzzle.length; i++) {
-            for (int j = 0; j < currentPuzzle[i].length; j++) {
-                System.out.print(currentPuzzle[i][j]);
+        for (int i = 0; i < currentPuzzle.getRows(); i++) {
+            for (int j = 0; j < currentPuzzle.getColumns(); j++) {
+                System.out.print(currentPuzzle.visibleAt(i, j));
             }
             System.out.println();
         }
@@ -317,8 +506,71 @@ public class Client extends UnicastRemoteObject implements RemoteBroadcastInterf
         return isValid;
     }
 
+    /**
+     * Checks if a word exists in the word repository.
+     *
+     * Recent answers are kept in a small LRU cache, and words that the
+     * dictionary's Bloom filter rules out are answered without asking the
+     * repository at all. The dictionary version is checked at most every
+     * {@link #DICTIONARY_CHECK_INTERVAL_MS} milliseconds; when it has changed,
+     * the cache is cleared and a new filter is downloaded, so a change made
+     * by another player is seen within that interval. The repository is
+     * asked without holding any lock, so a slow repository never holds up
+     * the delivery of messages.
+     *
+     * @param word the word to check
+     * @return true if the word exists in the repository, false otherwise
+     * @throws RemoteException if a remote communication error occurs
+     */
     public Boolean checkWord(String word) throws RemoteException {
-        return wordRepo.checkWord(word);
+
+        String lowerWord = word.toLowerCase();
+        WordFilter filter = refreshWordCache();
+
+        synchronized (wordCacheLock) {
+            Boolean cached = wordCache.get(lowerWord);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        boolean exists = filter.mightContain(lowerWord) && wordRepo.checkWord(lowerWord);
+        synchronized (wordCacheLock) {
+            // An answer about a dictionary that has since changed is not kept.
+            if (wordFilter == filter) {
+                wordCache.put(lowerWord, exists);
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Downloads a new Bloom filter and clears the cached answers if the
+     * dictionary has changed since the filter was downloaded.
+     *
+     * @return the current filter
+     * @throws RemoteException if a remote communication error occurs
+     */
+    private WordFilter refreshWordCache() throws RemoteException {
+
+        WordFilter filter;
+        synchronized (wordCacheLock) {
+            long now = System.currentTimeMillis();
+            if (wordFilter != null && now - dictionaryCheckedAt < DICTIONARY_CHECK_INTERVAL_MS) {
+                return wordFilter;
+            }
+            dictionaryCheckedAt = now;
+            filter = wordFilter;
+        }
+
+        if (filter == null || filter.getVersion() != wordRepo.getVersion()) {
+            filter = wordRepo.getWordFilter();
+            synchronized (wordCacheLock) {
+                wordFilter = filter;
+                wordCache.clear();
+            }
+        }
+        return filter;
     }
 
     
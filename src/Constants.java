@@ -1,5 +1,11 @@
 public class Constants {
 
+    // Game constants
+    public static final int DIFFICULTY_FACTOR = 100;
+    public static final int PUZZLE_POOL_SIZE = 4;
+    public static final int PUZZLE_POOL_WORKERS = 2;
+    public static final int[] PUZZLE_POOL_WARM_SIZES = {3, 4, 5, 6};
+
     // Message constants
     public static final String MAIN_MENU_MESSAGE = "\nSelect from the following options:\n"
                                                     +"1. Play a new game\n"
@@ -1,12 +1,17 @@
 import java.rmi.*;
+import java.util.Map;
 
 public interface CrissCrossPuzzleInterface extends Remote {
 
     public void startGame(String player, Integer numWords, Integer numberOfPlayers) throws RemoteException;
+    public void startGame(String player, Integer numWords, Integer numberOfPlayers, String orderingMode) throws RemoteException;
     public Boolean joinGame(Integer gameID, String player) throws RemoteException;
-    public char[][] getInitialPuzzle(Integer gameID) throws RemoteException;
+    public PuzzleGrid getInitialPuzzle(Integer gameID) throws RemoteException;
     Boolean isGameReady(Integer gameID) throws RemoteException;
     Integer getPlayerCount(Integer gameID) throws RemoteException;
+    Map<String, RemoteBroadcastInterface> getPlayerReferences() throws RemoteException;
+    String getPuzzlePoolStats() throws RemoteException;
+    RemoteBroadcastInterface getSequencer(Integer gameID) throws RemoteException;
 
 
 
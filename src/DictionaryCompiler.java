@@ -0,0 +1,29 @@
+import java.nio.file.Paths;
+
+/**
+ * Compiles a word list into the packed format that the WordRepository
+ * memory-maps at startup, so that large dictionaries load without reading
+ * and indexing every word.
+ *
+ * Usage: java DictionaryCompiler [words.txt] [words.dat]
+ */
+public class DictionaryCompiler {
+
+    public static void main(String[] args) {
+
+        String sourcePath = args.length > 0 ? args[0] : "words.txt";
+        String compiledPath = args.length > 1 ? args[1] : "words.dat";
+
+        try {
+            WordIndex index = new WordIndex(WordRepository.readWords(sourcePath));
+            index.write(Paths.get(compiledPath));
+            System.out.println("Compiled " + index.size() + " words from " + sourcePath + " into " + compiledPath);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private DictionaryCompiler() {
+        // This class should not be instantiated
+    }
+}
@@ -0,0 +1,333 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages from one peer to another, sent together in a single call, with
+ * a compact binary encoding.
+ *
+ * The peer the batch comes from and the epoch of its outbox are written
+ * once, followed by the senders of its messages, which differ from it only
+ * for messages a sequencer forwards, and the sequence number of the first
+ * message, since the rest follow on. Each message is then an opcode byte,
+ * the index of its sender, the difference from the previous timestamp as a
+ * varint, and a payload typed by the opcode: a string for GUESS, STATE and
+ * GAMEOVER, a varint for JOIN, LEAVE, GAMESTART, SYNC and RETRANSMIT, the
+ * fields of a PuzzleDelta for DELTA, and nothing for ACK. A message of any
+ * other type, or whose contents are not of the expected type, falls back
+ * to its type string and Java serialization of its contents.
+ */
+public class MessageBatch implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte FORMAT_VERSION = 2;
+
+    private enum Opcode {
+        ACK(BroadcastHandler.ACK, null),
+        GUESS("GUESS", String.class),
+        STATE("STATE", String.class),
+        GAMEOVER("GAMEOVER", String.class),
+        JOIN("JOIN", Integer.class),
+        LEAVE("LEAVE", Integer.class),
+        GAMESTART("GAMESTART", Integer.class),
+        SYNC("SYNC", Integer.class),
+        RETRANSMIT(BroadcastHandler.RETRANSMIT, Integer.class),
+        DELTA("DELTA", PuzzleDelta.class),
+        OTHER(null, null);
+
+        private static final Opcode[] VALUES = values();
+
+        private final String type;
+        private final Class<?> contents;
+
+        Opcode(String type, Class<?> contents) {
+            this.type = type;
+            this.contents = contents;
+        }
+
+        private static Opcode of(BroadcastHandler.Message message) {
+            for (Opcode opcode : VALUES) {
+                if (opcode != OTHER && opcode.type.equals(message.type)
+                        && (opcode.contents == null ? message.contents == null : opcode.contents.isInstance(message.contents))) {
+                    return opcode;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    private String origin;
+    private long epoch;
+    private List<BroadcastHandler.Message> messages;
+
+    /**
+     * Creates an empty batch to read into; used by serialization.
+     */
+    public MessageBatch() {
+        this.messages = Collections.emptyList();
+    }
+
+    /**
+     * Creates a batch.
+     *
+     * @param origin the ID of the peer sending the batch
+     * @param epoch the epoch of the outbox the sequence numbers belong to
+     * @param messages messages from that peer with consecutive sequence numbers
+     */
+    public MessageBatch(String origin, long epoch, List<BroadcastHandler.Message> messages) {
+        this.origin = origin;
+        this.epoch = epoch;
+        this.messages = messages;
+    }
+
+    /**
+     * @return the ID of the peer that sent the batch
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the epoch of the outbox the batch was sent from; a later
+     *         epoch starts the sequence numbers again
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public List<BroadcastHandler.Message> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+
+        out.writeByte(FORMAT_VERSION);
+        writeString(out, origin);
+        writeVarLong(out, epoch);
+        writeVarInt(out, messages.size());
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<String, Integer> senders = new LinkedHashMap<>();
+        senders.put(origin, 0);
+        for (BroadcastHandler.Message message : messages) {
+            senders.putIfAbsent(message.senderID, senders.size());
+        }
+        writeVarInt(out, senders.size() - 1);
+        for (String senderID : senders.keySet()) {
+            if (!senderID.equals(origin)) {
+                writeString(out, senderID);
+            }
+        }
+        writeVarInt(out, messages.get(0).sequence);
+
+        int previousTimeStamp = 0;
+        for (BroadcastHandler.Message message : messages) {
+
+            Opcode opcode = Opcode.of(message);
+            out.writeByte(opcode.ordinal());
+            writeVarInt(out, senders.get(message.senderID));
+            writeSignedVarInt(out, message.timeStamp - previousTimeStamp);
+            previousTimeStamp = message.timeStamp;
+
+            switch (opcode) {
+                case ACK:
+                    break;
+                case GUESS:
+                case STATE:
+                case GAMEOVER:
+                    writeString(out, (String) message.contents);
+                    break;
+                case JOIN:
+                case LEAVE:
+                case GAMESTART:
+                case SYNC:
+                case RETRANSMIT:
+                    writeSignedVarInt(out, (Integer) message.contents);
+                    break;
+                case DELTA:
+                    writeDelta(out, (PuzzleDelta) message.contents);
+                    break;
+                default:
+                    writeString(out, message.type);
+                    out.writeObject(message.contents);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported message batch version " + version);
+        }
+
+        String origin = readString(in);
+        long epoch = readVarLong(in);
+        int count = readVarInt(in);
+        List<BroadcastHandler.Message> read = new ArrayList<>(count);
+        if (count > 0) {
+
+            String[] senders = new String[readVarInt(in) + 1];
+            senders[0] = origin;
+            for (int i = 1; i < senders.length; i++) {
+                senders[i] = readString(in);
+            }
+            int sequence = readVarInt(in);
+            int timeStamp = 0;
+
+            for (int i = 0; i < count; i++) {
+
+                int code = in.readUnsignedByte();
+                if (code >= Opcode.VALUES.length) {
+                    throw new InvalidObjectException("Unknown message opcode " + code);
+                }
+                Opcode opcode = Opcode.VALUES[code];
+                int sender = readVarInt(in);
+                if (sender >= senders.length) {
+                    throw new InvalidObjectException("Unknown sender " + sender);
+                }
+                timeStamp += readSignedVarInt(in);
+
+                String type = opcode.type;
+                Object contents;
+                switch (opcode) {
+                    case ACK:
+                        contents = null;
+                        break;
+                    case GUESS:
+                    case STATE:
+                    case GAMEOVER:
+                        contents = readString(in);
+                        break;
+                    case JOIN:
+                    case LEAVE:
+                    case GAMESTART:
+                    case SYNC:
+                    case RETRANSMIT:
+                        contents = readSignedVarInt(in);
+                        break;
+                    case DELTA:
+                        contents = readDelta(in);
+                        break;
+                    default:
+                        type = readString(in);
+                        contents = in.readObject();
+                }
+                read.add(new BroadcastHandler.Message(timeStamp, senders[sender], type, contents, sequence + i));
+            }
+        }
+        this.origin = origin;
+        this.epoch = epoch;
+        this.messages = read;
+    }
+
+    private static void writeDelta(ObjectOutput out, PuzzleDelta delta) throws IOException {
+
+        writeVarInt(out, delta.getFromVersion());
+        writeVarInt(out, delta.getToVersion() - delta.getFromVersion());
+        writeSignedVarInt(out, delta.getGuessCounter());
+        writeVarInt(out, delta.getRunCount());
+
+        int previousStart = 0;
+        for (int run = 0; run < delta.getRunCount(); run++) {
+            writeVarInt(out, delta.getRunStart(run) - previousStart);
+            previousStart = delta.getRunStart(run);
+            writeString(out, delta.getRunLetters(run));
+        }
+    }
+
+    private static PuzzleDelta readDelta(ObjectInput in) throws IOException {
+
+        int fromVersion = readVarInt(in);
+        int toVersion = fromVersion + readVarInt(in);
+        int guessCounter = readSignedVarInt(in);
+
+        int[] runStarts = new int[readVarInt(in)];
+        String[] runLetters = new String[runStarts.length];
+        int start = 0;
+        for (int run = 0; run < runStarts.length; run++) {
+            start += readVarInt(in);
+            runStarts[run] = start;
+            runLetters[run] = readString(in);
+        }
+        return new PuzzleDelta(fromVersion, toVersion, guessCounter, runStarts, runLetters);
+    }
+
+    private static void writeString(ObjectOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ObjectInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a non-negative int in 7-bit groups, low group first, with the
+     * high bit of each byte set if another follows.
+     */
+    private static void writeVarInt(ObjectOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ObjectInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+
+    private static void writeVarLong(ObjectOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ObjectInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+
+    /**
+     * Writes an int that may be negative as a zigzag varint, so that small
+     * negative values stay short.
+     */
+    private static void writeSignedVarInt(ObjectOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readSignedVarInt(ObjectInput in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the words added to and removed from the
+ * WordRepository, so that changes survive a restart.
+ *
+ * Each record is an op byte ('+' or '-'), the length of the word, the
+ * word's UTF-8 bytes and a CRC32 of all three. Records are buffered by
+ * {@link #append(String, boolean)} and only written and forced to disk by
+ * {@link #sync()}, so a whole batch of mutations costs a single fsync.
+ *
+ * This class is not thread safe; the WordRepository only uses it while
+ * holding its write lock.
+ */
+public class MutationLog implements Closeable {
+
+    // Words are limited so that their UTF-8 bytes always fit the 16-bit
+    // length of a record.
+    public static final int MAX_WORD_LENGTH = 1024;
+
+    private static final byte ADD = '+';
+    private static final byte REMOVE = '-';
+
+    private final Path path;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private FileChannel channel;
+    private int recordCount;
+
+    /**
+     * Opens a log for appending, creating it if it does not exist.
+     *
+     * @param path the log file
+     * @param recordCount the number of records already in the file
+     * @throws IOException if the file cannot be opened
+     */
+    public MutationLog(Path path, int recordCount) throws IOException {
+        this.path = path;
+        this.recordCount = recordCount;
+        this.channel = open(path);
+    }
+
+    /**
+     * Replays every intact record of a log in order. A torn or corrupt record,
+     * as left by a crash in the middle of a write, ends the log; it and
+     * anything after it are truncated so that new records follow the last
+     * good one.
+     *
+     * @param path the log file; nothing is replayed if it does not exist
+     * @param mutation called with each word and true for an add, false for a remove
+     * @return the number of records replayed
+     * @throws IOException if the file cannot be read
+     */
+    public static int replay(Path path, BiConsumer<String, Boolean> mutation) throws IOException {
+
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        int count = 0;
+        long validLength = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+            while (true) {
+
+                byte op;
+                byte[] bytes;
+                int checksum;
+                try {
+                    op = in.readByte();
+                    int length = in.readUnsignedShort();
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if ((op != ADD && op != REMOVE) || checksum != checksum(op, bytes)) {
+                    break;
+                }
+
+                mutation.accept(new String(bytes, StandardCharsets.UTF_8), op == ADD);
+                validLength += 1 + Short.BYTES + bytes.length + Integer.BYTES;
+                count++;
+            }
+        }
+
+        if (Files.size(path) > validLength) {
+            System.err.println("Truncating damaged mutation log " + path + " after " + count + " records");
+            try (FileChannel truncate = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncate.truncate(validLength);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Buffers a record. Nothing is written until {@link #sync()} is called.
+     *
+     * @param word the word that was added or removed
+     * @param add true for an add, false for a remove
+     */
+    public void append(String word, boolean add) {
+
+        byte op = add ? ADD : REMOVE;
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer record = ByteBuffer.allocate(1 + Short.BYTES + bytes.length + Integer.BYTES);
+        record.put(op).putShort((short) bytes.length).put(bytes).putInt(checksum(op, bytes));
+        pending.write(record.array(), 0, record.capacity());
+        recordCount++;
+    }
+
+    /**
+     * Writes every buffered record and forces them to disk with one fsync.
+     * If this fails, the buffered records are discarded.
+     *
+     * @throws IOException if the records cannot be written
+     */
+    public void sync() throws IOException {
+
+        if (pending.size() == 0) {
+            return;
+        }
+
+        ByteBuffer records = ByteBuffer.wrap(pending.toByteArray());
+        pending.reset();
+        long validLength = channel.size();
+
+        try {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(false);
+
+        } catch (IOException e) {
+            // Drop a partly written batch, so that later records are not
+            // hidden behind it when the log is replayed.
+            channel.truncate(validLength);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of records in the log, including buffered ones
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Moves the current log aside and starts an empty one in its place, so
+     * that the moved records can be compacted while new ones keep arriving.
+     *
+     * @param target where the current log is moved to
+     * @throws IOException if the log cannot be moved or reopened
+     */
+    public void rotate(Path target) throws IOException {
+
+        sync();
+        channel.close();
+        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+        recordCount = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static int checksum(byte op, byte[] bytes) {
+
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(bytes.length >>> 8);
+        crc.update(bytes.length);
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,521 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends messages between BroadcastHandlers over plain TCP sockets, without
+ * RMI's thread per call, distributed garbage collection or stubs.
+ *
+ * Every exported handler listens on its own port, and its endpoint is just
+ * the host and port, which is sent to peers by value. Each JVM keeps one
+ * persistent connection to every endpoint it sends to, opened on first use
+ * and again after it fails.
+ *
+ * A frame is a four-byte length followed by that many bytes. A request is
+ * a frame holding a type byte and a batch in the encoding of
+ * {@link MessageBatch}. The receiver passes it to the handler and answers with a frame holding a
+ * status byte, followed by the error for a failed request. Replies come
+ * back in the order of the requests on a connection, so a caller waiting
+ * for one is simply the oldest call still waiting on it.
+ *
+ * All reading, writing, accepting and connecting is done without blocking
+ * by one thread looping on a selector. Received requests are passed to the
+ * handler on that thread, which is safe because a handler never waits on
+ * the network while holding its lock. Sending threads hand their frames to
+ * the loop and wait for the reply, so a call looks synchronous to them,
+ * like an RMI call.
+ */
+public class NioTransport implements Transport {
+
+    private static final byte BATCH = 1;
+    private static final byte OK = 0;
+    private static final byte FAILED = 1;
+
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // A call that has had no reply for this long fails, and is retried by
+    // the handler like any other failed call.
+    private static final long CALL_TIMEOUT_MS = Long.getLong("broadcastCallTimeoutMs", 10000);
+
+    private static NioTransport shared;
+
+    private final String host;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Map<Endpoint, Connection> connections = new HashMap<>();
+
+    /**
+     * Opens a selector and starts the thread that loops on it.
+     *
+     * @param host the host name peers should connect to
+     * @throws IOException if the selector cannot be opened
+     */
+    private NioTransport(String host) throws IOException {
+        this.host = host;
+        this.selector = Selector.open();
+
+        Thread loop = new Thread(this::run, "NioTransport");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * @return the transport shared by every handler in this JVM, listening
+     *         on the host set by java.rmi.server.hostname, or localhost
+     */
+    public static synchronized NioTransport shared() {
+
+        if (shared == null) {
+            try {
+                shared = new NioTransport(System.getProperty("java.rmi.server.hostname", "localhost"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not start the NIO transport", e);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Listens for peers on a new port and passes what they send to the
+     * handler.
+     *
+     * @param receiver the handler to pass received messages to
+     * @return the host and port of the new listening socket
+     * @throws RemoteException if the socket cannot be opened
+     */
+    @Override
+    public RemoteBroadcastInterface export(RemoteBroadcastInterface receiver) throws RemoteException {
+
+        try {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(host, 0));
+            server.configureBlocking(false);
+
+            execute(() -> {
+                try {
+                    server.register(selector, SelectionKey.OP_ACCEPT, receiver);
+                } catch (ClosedChannelException e) {
+                    System.err.println("Could not listen for peers: " + e.getMessage());
+                }
+            });
+            return new Endpoint(host, server.socket().getLocalPort());
+
+        } catch (IOException e) {
+            throw new RemoteException("Could not listen for peers on " + host, e);
+        }
+    }
+
+    /**
+     * Sends a request frame to an endpoint and waits for the reply.
+     *
+     * @throws RemoteException if the endpoint cannot be reached, fails the
+     *         request or does not reply in time
+     */
+    private void call(Endpoint endpoint, ByteBuffer frame) throws RemoteException {
+
+        Call call = new Call(frame);
+        execute(() -> connection(endpoint).send(call));
+
+        try {
+            if (!call.done.await(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new RemoteException("No reply from " + endpoint + " within " + CALL_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for " + endpoint, e);
+        }
+        if (call.failure != null) {
+            throw call.failure;
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     */
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the selector loop. A task or connection that fails with a
+     * runtime exception is logged, and a failing connection is closed, so
+     * that one bad peer does not stop the transport for every handler.
+     */
+    private void run() {
+
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("NIO transport selector failed: " + e.getMessage());
+                return;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("NIO transport task failed: " + e);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                handle(key);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+
+        if (key.isValid() && key.isAcceptable()) {
+            accept(key);
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                connection.finishConnect();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        } catch (IOException | RuntimeException e) {
+            connection.close(e);
+        }
+    }
+
+    private void accept(SelectionKey key) {
+
+        try {
+            SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Connection connection = new Connection(null, channel, (RemoteBroadcastInterface) key.attachment());
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not accept a peer: " + e);
+        }
+    }
+
+    /**
+     * @return the open connection to an endpoint, connecting if there is
+     *         none. Must be called on the loop thread.
+     */
+    private Connection connection(Endpoint endpoint) {
+
+        Connection connection = connections.get(endpoint);
+        if (connection != null) {
+            return connection;
+        }
+
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection = new Connection(endpoint, channel, null);
+
+            boolean connected = channel.connect(new InetSocketAddress(endpoint.host, endpoint.port));
+            connection.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            connection.connected = connected;
+
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    // Failed anyway.
+                }
+            }
+            // Fail the call on a connection that was never opened; the next
+            // call tries to connect again.
+            connection = new Connection(endpoint, null, null);
+            connection.connectFailure = new ConnectException("Could not connect to " + endpoint, e);
+            return connection;
+        }
+
+        connections.put(endpoint, connection);
+        return connection;
+    }
+
+    private static ByteBuffer frame(MessageBatch batch) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(new byte[4]);
+        bytes.write(BATCH);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            batch.writeExternal(out);
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - 4);
+        return frame;
+    }
+
+    private static ByteBuffer reply(RemoteException failure) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeByte(failure == null ? OK : FAILED);
+            if (failure != null) {
+                out.writeUTF(String.valueOf(failure.getMessage()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - 4);
+        return frame;
+    }
+
+    /**
+     * The address of a handler exported through the NIO transport. It is
+     * sent to peers by value, and sends through the shared transport of
+     * whichever JVM it is used in.
+     */
+    public static class Endpoint implements RemoteBroadcastInterface, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String host;
+        private final int port;
+
+        private Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public void receiveBatch(MessageBatch batch) throws RemoteException {
+
+            ByteBuffer frame;
+            try {
+                frame = frame(batch);
+            } catch (IOException e) {
+                throw new RemoteException("Could not encode a message for " + this, e);
+            }
+            shared().call(this, frame);
+        }
+
+        @Override
+        public RemoteBroadcastInterface getEndpoint() {
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Endpoint && ((Endpoint) other).host.equals(host) && ((Endpoint) other).port == port;
+        }
+
+        @Override
+        public int hashCode() {
+            return host.hashCode() * 31 + port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * A request waiting to be sent and answered.
+     */
+    private static class Call {
+        private final ByteBuffer frame;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RemoteException failure;
+
+        private Call(ByteBuffer frame) {
+            this.frame = frame;
+        }
+
+        private void complete(RemoteException failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    /**
+     * One socket, either to an endpoint this JVM sends to, or from a peer
+     * sending to a handler exported here. Used only on the loop thread.
+     */
+    private class Connection {
+        private final Endpoint endpoint;
+        private final SocketChannel channel;
+        private final RemoteBroadcastInterface receiver;
+        private final Deque<ByteBuffer> writes = new ArrayDeque<>();
+        private final Deque<Call> awaiting = new ArrayDeque<>();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private SelectionKey key;
+        private boolean connected;
+        private RemoteException connectFailure;
+
+        private Connection(Endpoint endpoint, SocketChannel channel, RemoteBroadcastInterface receiver) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+            this.receiver = receiver;
+            this.connected = receiver != null;
+        }
+
+        private void send(Call call) {
+
+            if (connectFailure != null) {
+                call.complete(connectFailure);
+                return;
+            }
+            writes.add(call.frame);
+            awaiting.add(call);
+            if (connected) {
+                try {
+                    write();
+                } catch (IOException | RuntimeException e) {
+                    close(e);
+                }
+            }
+        }
+
+        private void finishConnect() throws IOException {
+            channel.finishConnect();
+            connected = true;
+            key.interestOps(SelectionKey.OP_READ);
+            write();
+        }
+
+        /**
+         * Writes as much as the socket takes, and waits to be told it can
+         * take more if anything is left.
+         */
+        private void write() throws IOException {
+
+            while (!writes.isEmpty()) {
+                ByteBuffer frame = writes.peek();
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writes.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Reads what has arrived and handles every complete frame in it.
+         */
+        private void read() throws IOException {
+
+            if (channel.read(readBuffer) < 0) {
+                throw new EOFException("Connection closed by peer");
+            }
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= 4) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < 1 || length > MAX_FRAME_SIZE) {
+                    throw new StreamCorruptedException("Bad frame length " + length);
+                }
+                if (readBuffer.remaining() < 4 + length) {
+                    break;
+                }
+                readBuffer.position(readBuffer.position() + 4);
+                byte[] frame = new byte[length];
+                readBuffer.get(frame);
+                handle(frame);
+            }
+            readBuffer.compact();
+
+            // Grow the buffer if the next frame does not fit.
+            if (readBuffer.position() >= 4) {
+                int needed = 4 + readBuffer.getInt(0);
+                if (needed > readBuffer.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(needed);
+                    readBuffer.flip();
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                }
+            }
+        }
+
+        private void handle(byte[] frame) throws IOException {
+
+            if (receiver == null) {
+                Call call = awaiting.poll();
+                if (call == null) {
+                    throw new StreamCorruptedException("Reply without a request");
+                }
+                if (frame[0] == OK) {
+                    call.complete(null);
+                } else {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1));
+                    call.complete(new RemoteException(endpoint + " failed the request: " + in.readUTF()));
+                }
+                return;
+            }
+
+            RemoteException failure = null;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1))) {
+                if (frame[0] == BATCH) {
+                    MessageBatch batch = new MessageBatch();
+                    batch.readExternal(in);
+                    receiver.receiveBatch(batch);
+                } else {
+                    throw new StreamCorruptedException("Unknown request type " + frame[0]);
+                }
+            } catch (RemoteException e) {
+                failure = e;
+            } catch (ClassNotFoundException | RuntimeException e) {
+                failure = new RemoteException("Could not handle a request", e);
+            }
+
+            writes.add(reply(failure));
+            write();
+        }
+
+        /**
+         * Closes the socket and fails every call still waiting on it. The
+         * next call to the endpoint opens a new connection.
+         */
+        private void close(Exception cause) {
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+            if (endpoint != null) {
+                connections.remove(endpoint, this);
+            }
+
+            RemoteException failure = new ConnectException("Connection to " + (endpoint != null ? endpoint : "peer") + " lost", cause);
+            Call call;
+            while ((call = awaiting.poll()) != null) {
+                call.complete(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.Serializable;
+
+/**
+ * The cells revealed in a puzzle between two versions.
+ *
+ * A puzzle's version counts the guesses it has processed. A delta from
+ * version N to version M holds every cell revealed by those guesses as
+ * runs of consecutive cells, each with its first cell and the letters it
+ * reveals, along with the number of guesses left at version M. Since
+ * cells are only ever revealed, applying a delta twice, or applying one
+ * that overlaps what a peer already has, leaves the same state.
+ */
+public class PuzzleDelta implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int fromVersion;
+    private final int toVersion;
+    private final int guessCounter;
+    private final int[] runStarts;
+    private final String[] runLetters;
+
+    /**
+     * Creates a delta.
+     *
+     * @param fromVersion the version the delta applies to
+     * @param toVersion the version the delta brings a puzzle to
+     * @param guessCounter the number of guesses left at toVersion
+     * @param runStarts the first cell of each run, row by row
+     * @param runLetters the letters revealed by each run
+     */
+    public PuzzleDelta(int fromVersion, int toVersion, int guessCounter, int[] runStarts, String[] runLetters) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.guessCounter = guessCounter;
+        this.runStarts = runStarts;
+        this.runLetters = runLetters;
+    }
+
+    public int getFromVersion() {
+        return fromVersion;
+    }
+
+    public int getToVersion() {
+        return toVersion;
+    }
+
+    public int getGuessCounter() {
+        return guessCounter;
+    }
+
+    public int getRunCount() {
+        return runStarts.length;
+    }
+
+    /**
+     * @param run the index of the run
+     * @return the first cell of the run, numbered row by row
+     */
+    public int getRunStart(int run) {
+        return runStarts[run];
+    }
+
+    /**
+     * @param run the index of the run
+     * @return the letters the run reveals, one per cell
+     */
+    public String getRunLetters(int run) {
+        return runLetters[run];
+    }
+
+    /**
+     * @return true if the delta reveals no cells
+     */
+    public boolean isEmpty() {
+        return runStarts.length == 0;
+    }
+}
@@ -0,0 +1,135 @@
+import java.net.MalformedURLException;
+import java.rmi.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the words of a new puzzle from a word repository.
+ *
+ * There are two backends. A local generator calls a WordRepository in the
+ * same JVM directly, with no serialization at all. A remote generator looks
+ * the repository up in the RMI registry once and keeps the stub, looking it
+ * up again only after a call through it fails.
+ */
+public interface PuzzleGenerator {
+
+    String WORD_REPOSITORY_URL = "rmi://localhost/WordRepository";
+
+    /**
+     * Chooses a stem long enough for the given number of words and one
+     * horizontal word crossing every second letter of the stem.
+     *
+     * @param numWords the number of words in the puzzle, including the stem
+     * @return the stem followed by the horizontal words
+     * @throws RemoteException if the repository cannot be reached or has no suitable words
+     */
+    List<String> chooseWords(int numWords) throws RemoteException;
+
+    /**
+     * @param repository a repository in this JVM
+     * @return a generator that calls the repository directly
+     */
+    static PuzzleGenerator local(WordRepository repository) {
+        return new LocalGenerator(repository);
+    }
+
+    /**
+     * @return the shared generator for the repository at the default URL
+     */
+    static PuzzleGenerator remote() {
+        return RemoteGenerator.DEFAULT;
+    }
+
+    /**
+     * @param url the RMI URL of the repository
+     * @return a generator for the repository at the given URL
+     */
+    static PuzzleGenerator remote(String url) {
+        return new RemoteGenerator(url);
+    }
+
+    /**
+     * Calls a WordRepository in the same JVM.
+     */
+    class LocalGenerator implements PuzzleGenerator {
+
+        private final WordRepository repository;
+
+        private LocalGenerator(WordRepository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public List<String> chooseWords(int numWords) throws RemoteException {
+            return repository.getPuzzleWords(stemLength(numWords), intersectIndexes(numWords));
+        }
+    }
+
+    /**
+     * Calls a WordRepository through a cached RMI stub.
+     */
+    class RemoteGenerator implements PuzzleGenerator {
+
+        private static final RemoteGenerator DEFAULT = new RemoteGenerator(WORD_REPOSITORY_URL);
+
+        private final String url;
+        private volatile WordRepositoryInterface stub;
+
+        private RemoteGenerator(String url) {
+            this.url = url;
+        }
+
+        /**
+         * Chooses the words through the cached stub. If the call fails to
+         * reach the repository, it may have been restarted, so the stub is
+         * looked up again and the call retried once.
+         */
+        @Override
+        public List<String> chooseWords(int numWords) throws RemoteException {
+
+            WordRepositoryInterface current = stub();
+            try {
+                return current.getPuzzleWords(stemLength(numWords), intersectIndexes(numWords));
+
+            } catch (ConnectException | NoSuchObjectException e) {
+                stub = null;
+                return stub().getPuzzleWords(stemLength(numWords), intersectIndexes(numWords));
+            }
+        }
+
+        private WordRepositoryInterface stub() throws RemoteException {
+
+            WordRepositoryInterface current = stub;
+            if (current == null) {
+                try {
+                    current = (WordRepositoryInterface) Naming.lookup(url);
+                } catch (NotBoundException | MalformedURLException e) {
+                    throw new RemoteException("Could not look up " + url, e);
+                }
+                stub = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @param numWords the number of words in the puzzle
+     * @return the shortest stem with a letter for every horizontal word
+     */
+    private static int stemLength(int numWords) {
+        return (numWords - 1) * 2;
+    }
+
+    /**
+     * @param numWords the number of words in the puzzle
+     * @return every second letter of the stem, one per horizontal word
+     */
+    private static List<Integer> intersectIndexes(int numWords) {
+
+        List<Integer> intersectIndexes = new ArrayList<>();
+        for (int i = 0; i < (numWords - 1) * 2; i += 2) {
+            intersectIndexes.add(i);
+        }
+        return intersectIndexes;
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of a puzzle grid.
+ *
+ * The cells are stored row by row in one flat string of master letters,
+ * with '.' for cells that are not part of any word, and a bitmask of the
+ * cells that have been revealed. The cell at row i and column j is
+ * {@code i * columns + j}. Each placed word is described by its first
+ * cell, its length and the step between its cells, which is 1 for a word
+ * across and the number of columns for a word down.
+ *
+ * A grid is compact to send over RMI, since the letters serialize as a
+ * single string at one byte per letter, and cheap to snapshot, since only
+ * the bitmask is copied.
+ */
+public class PuzzleGrid implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final char EMPTY = '.';
+    public static final char HIDDEN = '-';
+
+    private final int rows;
+    private final int columns;
+    private final String letters;
+    private final long[] revealed;
+    private final int[] wordSpans;
+    private final int version;
+
+    /**
+     * Creates a grid snapshot.
+     *
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param letters the master letters of every cell, row by row
+     * @param revealed a bitmask of the revealed cells, which is copied
+     * @param wordSpans the first cell, length and step of every placed word,
+     *        three entries per word, which is shared and must not be changed
+     * @param version the version of the puzzle this is a snapshot of
+     */
+    public PuzzleGrid(int rows, int columns, String letters, long[] revealed, int[] wordSpans, int version) {
+
+        if (letters.length() != rows * columns) {
+            throw new IllegalArgumentException("Expected " + rows * columns + " cells but got " + letters.length());
+        }
+
+        this.rows = rows;
+        this.columns = columns;
+        this.letters = letters;
+        this.revealed = Arrays.copyOf(revealed, (letters.length() + 63) / 64);
+        this.wordSpans = wordSpans;
+        this.version = version;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the version of the puzzle this is a snapshot of, which is the
+     *         number of guesses it had processed
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public int getCellCount() {
+        return letters.length();
+    }
+
+    /**
+     * @return the master letters of every cell, row by row
+     */
+    public String getLetters() {
+        return letters;
+    }
+
+    /**
+     * @return a copy of the bitmask of revealed cells
+     */
+    public long[] getRevealed() {
+        return revealed.clone();
+    }
+
+    /**
+     * @param cell the cell, numbered row by row
+     * @return the master letter of the cell, or '.' if it is not part of a word
+     */
+    public char letterAt(int cell) {
+        return letters.charAt(cell);
+    }
+
+    /**
+     * @param cell the cell, numbered row by row
+     * @return true if the cell has been revealed
+     */
+    public boolean isRevealed(int cell) {
+        return (revealed[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * @return the number of placed words
+     */
+    public int getWordCount() {
+        return wordSpans.length / 3;
+    }
+
+    /**
+     * Lists the cells of a placed word, in the order of its letters.
+     *
+     * @param word the index of the word
+     * @return the cells holding the word's letters
+     */
+    public int[] getWordCells(int word) {
+
+        int first = wordSpans[word * 3];
+        int[] cells = new int[wordSpans[word * 3 + 1]];
+        int step = wordSpans[word * 3 + 2];
+
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = first + i * step;
+        }
+        return cells;
+    }
+
+    /**
+     * Retrieves what the players see in a cell: the letter if it has been
+     * revealed, '-' if it has not, or '.' if the cell is not part of a word.
+     *
+     * @param row the row of the cell
+     * @param column the column of the cell
+     * @return the visible character of the cell
+     */
+    public char visibleAt(int row, int column) {
+
+        int cell = row * columns + column;
+        char letter = letters.charAt(cell);
+        return letter == EMPTY || isRevealed(cell) ? letter : HIDDEN;
+    }
+}
@@ -1,27 +1,75 @@
-import java.rmi.Naming;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The state of one puzzle, shared by the players' guesses.
+ *
+ * Guesses and deltas are applied by a single writer at a time. A thread
+ * with a guess queues it and, if no other thread is applying guesses,
+ * applies every queued guess in order and publishes one immutable grid
+ * snapshot for the whole batch; otherwise it waits for the thread that is
+ * to apply its guess too. Every queued guess is applied exactly once, in
+ * queue order. Readers only ever see published snapshots and the volatile
+ * counters, so they never take a lock.
+ */
 public class PuzzleObject {
 
-    private final Lock lock = new ReentrantLock();
-    private WordRepositoryInterface wordRepo;
-    private Integer gameID;
-    private Integer numWords;
-    private Integer difficultyFactor;
-    private Integer guessCounter;
+    private static final int SNAPSHOT_MAGIC = 0x50555A53;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_SNAPSHOT_CELLS = 1 << 16;
+    private static final int MAX_SNAPSHOT_VERSION = 1 << 20;
+
+    private final Queue<Guess> pendingGuesses = new ConcurrentLinkedQueue<>();
+    private final Object writeLock = new Object();
+    private volatile PuzzleGrid puzzleGrid;
+    private volatile int guessCounter;
+    private PuzzleGenerator generator;
+    private final int gameID;
+    private final int numWords;
+    private final int difficultyFactor;
     private ConcurrentHashMap<String, String> playerStatus = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, Integer> playerSequences = new ConcurrentHashMap<>();
     private String activePlayer;
     private String stem;
     private List<String> horizontalWords = new ArrayList<>();
     private List<String> completedWords = new ArrayList<>();
-    private char[][] puzzleMaster;
-    private char[][] puzzleSlave;
+    private int rows;
+    private int columns;
+    private String puzzleMaster;
+    private long[] revealedCells;
+    private List<String> placedWords = new ArrayList<>();
+    private Map<String, Integer> placedWordIndex = new HashMap<>();
+    private List<int[]> wordCells = new ArrayList<>();
+    private int[] wordSpans = new int[0];
+    private Map<Character, int[]> letterCells = new HashMap<>();
+    private int[][] cellWords;
+    private int[] unrevealedWordCells;
+    private int unrevealedCells;
+    private int version;
+    private int[] revealOrder;
+    private int revealCount;
+    private int[] versionEnds = new int[16];
 
     public PuzzleObject(String username, Integer gameID, Integer numWords, Integer difficultyFactor) {
+        this(username, gameID, numWords, difficultyFactor, PuzzleGenerator.remote());
+    }
+
+    /**
+     * Creates a new puzzle with words chosen by the given generator.
+     *
+     * @param username the player creating the puzzle
+     * @param gameID the ID of the game
+     * @param numWords the number of words in the puzzle
+     * @param difficultyFactor the number of guesses allowed per letter of the horizontal words
+     * @param generator the generator that chooses the words
+     */
+    public PuzzleObject(String username, Integer gameID, Integer numWords, Integer difficultyFactor,
+            PuzzleGenerator generator) {
+        this.generator = generator;
         this.activePlayer = username;
         this.gameID = gameID;
         this.numWords = numWords;
@@ -32,6 +80,262 @@ public class PuzzleObject {
         initPuzzle();
     }
 
+    /**
+     * Creates a replica of a puzzle from a grid received from the server.
+     * The placed words are read back from the grid, so the replica can
+     * process guesses exactly like the original.
+     *
+     * @param gameID the ID of the game
+     * @param grid the puzzle grid received from the server
+     * @param difficultyFactor the difficulty factor the puzzle was created with
+     */
+    public PuzzleObject(Integer gameID, PuzzleGrid grid, Integer difficultyFactor) {
+        this.gameID = gameID;
+        this.difficultyFactor = difficultyFactor;
+        this.numWords = grid.getWordCount();
+        this.rows = grid.getRows();
+        this.columns = grid.getColumns();
+        this.puzzleMaster = grid.getLetters();
+        this.revealedCells = grid.getRevealed();
+        this.version = grid.getVersion();
+
+        for (int word = 0; word < grid.getWordCount(); word++) {
+
+            int[] cells = grid.getWordCells(word);
+            char[] letters = new char[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                letters[i] = puzzleMaster.charAt(cells[i]);
+            }
+            placeWord(new String(letters), cells);
+        }
+
+        this.stem = placedWords.get(0);
+        this.horizontalWords.addAll(placedWords.subList(1, placedWords.size()));
+        initGuessCounter();
+        initSolveTracking();
+        publish();
+    }
+
+    /**
+     * Creates a new puzzle from a grid that was generated ahead of time,
+     * with the given player as its creator.
+     *
+     * @param username the player creating the puzzle
+     * @param gameID the ID of the game
+     * @param grid the pre-generated puzzle grid
+     * @param difficultyFactor the difficulty factor the grid was generated with
+     */
+    public PuzzleObject(String username, Integer gameID, PuzzleGrid grid, Integer difficultyFactor) {
+        this(gameID, grid, difficultyFactor);
+        this.activePlayer = username;
+        addPlayer(username);
+    }
+
+    /**
+     * Writes a binary snapshot of the puzzle: the master letters, the
+     * revealed cells, the placed words, the version, the guess counter and
+     * every player's status and sequence. Completed words are not written,
+     * since they follow from the revealed cells. A 15x15 puzzle with a few
+     * players takes a few hundred bytes.
+     *
+     * @param out the stream to write the snapshot to, which is not closed
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        PuzzleGrid grid;
+        int guesses;
+        synchronized (writeLock) {
+            applyPendingGuesses();
+            publish();
+            grid = puzzleGrid;
+            guesses = guessCounter;
+        }
+
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeInt(SNAPSHOT_VERSION);
+        data.writeInt(gameID);
+        data.writeInt(difficultyFactor);
+        data.writeInt(grid.getVersion());
+        data.writeInt(guesses);
+        data.writeInt(grid.getRows());
+        data.writeInt(grid.getColumns());
+
+        byte[] letters = grid.getLetters().getBytes(StandardCharsets.UTF_8);
+        data.writeInt(letters.length);
+        data.write(letters);
+
+        long[] revealed = grid.getRevealed();
+        data.writeInt(revealed.length);
+        for (long bits : revealed) {
+            data.writeLong(bits);
+        }
+
+        data.writeInt(grid.getWordCount());
+        for (int word = 0; word < grid.getWordCount(); word++) {
+            int[] cells = grid.getWordCells(word);
+            data.writeInt(cells[0]);
+            data.writeInt(cells.length);
+            data.writeInt(cells.length > 1 ? cells[1] - cells[0] : 1);
+        }
+
+        data.writeBoolean(activePlayer != null);
+        if (activePlayer != null) {
+            data.writeUTF(activePlayer);
+        }
+
+        Map<String, String> statuses = new HashMap<>(playerStatus);
+        data.writeInt(statuses.size());
+        for (Map.Entry<String, String> player : statuses.entrySet()) {
+            data.writeUTF(player.getKey());
+            data.writeUTF(player.getValue());
+            data.writeInt(playerSequences.getOrDefault(player.getKey(), 0));
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Restores a puzzle from a snapshot written by
+     * {@link #writeSnapshot(OutputStream)}. The solve tracking is rebuilt
+     * from the revealed cells, so restoring costs one pass over the grid no
+     * matter how many guesses led to it. Every count and cell index is
+     * checked before it is used, so a damaged snapshot is reported as an
+     * IOException rather than failing with a runtime exception.
+     *
+     * @param in the stream to read the snapshot from, which is not closed
+     * @return the restored puzzle
+     * @throws IOException if the snapshot cannot be read or is not a puzzle snapshot
+     */
+    public static PuzzleObject readSnapshot(InputStream in) throws IOException {
+
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+        if (data.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a puzzle snapshot");
+        }
+        int formatVersion = data.readInt();
+        if (formatVersion != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported puzzle snapshot version " + formatVersion);
+        }
+
+        int gameID = data.readInt();
+        int difficultyFactor = data.readInt();
+        int version = readCount(data, MAX_SNAPSHOT_VERSION, "version");
+        int guesses = data.readInt();
+        int rows = readCount(data, MAX_SNAPSHOT_CELLS, "rows");
+        int columns = readCount(data, MAX_SNAPSHOT_CELLS, "columns");
+        if (rows == 0 || columns == 0 || (long) rows * columns > MAX_SNAPSHOT_CELLS) {
+            throw new IOException("Corrupt puzzle snapshot: " + rows + "x" + columns + " grid");
+        }
+        int cellCount = rows * columns;
+
+        int letterCount = data.readInt();
+        if (letterCount != cellCount) {
+            throw new IOException("Corrupt puzzle snapshot: " + letterCount + " letters for " + cellCount + " cells");
+        }
+        byte[] letters = new byte[letterCount];
+        data.readFully(letters);
+
+        long[] revealed = new long[readCount(data, (cellCount + 63) / 64, "revealed words")];
+        for (int i = 0; i < revealed.length; i++) {
+            revealed[i] = data.readLong();
+        }
+
+        int wordCount = readCount(data, cellCount, "words");
+        if (wordCount == 0) {
+            throw new IOException("Corrupt puzzle snapshot: no words");
+        }
+        int[] spans = new int[wordCount * 3];
+        for (int i = 0; i < spans.length; i += 3) {
+            spans[i] = data.readInt();
+            spans[i + 1] = data.readInt();
+            spans[i + 2] = data.readInt();
+            long last = spans[i] + (long) (spans[i + 1] - 1) * spans[i + 2];
+            if (spans[i] < 0 || spans[i + 1] < 1 || spans[i + 2] < 1 || last >= cellCount) {
+                throw new IOException("Corrupt puzzle snapshot: word " + i / 3 + " is outside the grid");
+            }
+        }
+
+        PuzzleObject puzzle;
+        try {
+            PuzzleGrid grid = new PuzzleGrid(rows, columns, new String(letters, StandardCharsets.UTF_8),
+                    revealed, spans, version);
+            puzzle = new PuzzleObject(gameID, grid, difficultyFactor);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt puzzle snapshot", e);
+        }
+        puzzle.guessCounter = guesses;
+
+        if (data.readBoolean()) {
+            puzzle.activePlayer = data.readUTF();
+        }
+        int players = readCount(data, Integer.MAX_VALUE, "players");
+        for (int i = 0; i < players; i++) {
+            String username = data.readUTF();
+            puzzle.playerStatus.put(username, data.readUTF());
+            puzzle.playerSequences.put(username, data.readInt());
+        }
+
+        return puzzle;
+    }
+
+    /**
+     * Reads a count or size from a snapshot and checks that it is in range.
+     *
+     * @param data the stream to read from
+     * @param max the largest value allowed
+     * @param what what the value counts, for the error message
+     * @return the value read
+     * @throws IOException if the value cannot be read or is out of range
+     */
+    private static int readCount(DataInputStream data, int max, String what) throws IOException {
+
+        int count = data.readInt();
+        if (count < 0 || count > max) {
+            throw new IOException("Corrupt puzzle snapshot: " + count + " " + what);
+        }
+        return count;
+    }
+
+    /**
+     * Saves a snapshot to a file. The snapshot is written next to the file
+     * first and moved into place, so a crash never leaves a partial one.
+     *
+     * @param path the file to save the snapshot to
+     * @throws IOException if the snapshot cannot be saved
+     */
+    public void saveSnapshot(Path path) throws IOException {
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            writeSnapshot(out);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a snapshot saved by {@link #saveSnapshot(Path)}.
+     *
+     * @param path the file to load the snapshot from
+     * @return the restored puzzle
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static PuzzleObject loadSnapshot(Path path) throws IOException {
+
+        try (InputStream in = Files.newInputStream(path)) {
+            return readSnapshot(in);
+        }
+    }
+
+    /**
+     * @return the ID of the game
+     */
+    public int getGameID() {
+        return gameID;
+    }
+
     /**
      * Adds a new player to the game, associating them with a ClientCallbackInterface
      * and initializing their score to 0.
@@ -46,54 +350,36 @@ public class PuzzleObject {
 
     /**
      * Processes a character guess in the puzzle.
-     * Decrements the guess counter and checks if the guessed character
-     * is present in the puzzleMaster grid. If found, updates the corresponding
-     * positions in the puzzleSlave grid with the guessed character.
+     * Decrements the guess counter and reveals every cell that holds the
+     * guessed character in the puzzleMaster grid.
+     *
+     * The cells holding each letter, the number of unrevealed cells in each
+     * word and in the whole puzzle are all worked out in initSolveTracking,
+     * so a guess only touches the cells it reveals and finding completed
+     * words and a solved puzzle takes constant time.
      * 
      * @param guess The character guessed by the player.
-     * @return true if the puzzleSlave matches the puzzleMaster after the guess,
+     * @return true if every cell of the puzzleMaster is revealed after the guess,
      *         indicating the puzzle is solved; otherwise, returns false.
      */
     public Boolean guessChar(String username, char guess){
+        return applyGuess(new Guess(username, guess, null));
+    }
+
+    private boolean applyCharGuess(String username, char guess){
 
         System.out.println("Game ID: " + gameID + " guessing " + guess);
         this.guessCounter--;
 
-        for (int i = 0; i < puzzleMaster.length; i++) {
-
-            for (int j = 0; j < puzzleMaster[i].length; j++) {
-
-                if (puzzleMaster[i][j] == guess) {
-
-                    puzzleSlave[i][j] = guess;
-
-                    String masterRow = new String(puzzleMaster[i]).replaceAll("^-+|-+$", "");
-                    String slaveRow = new String(puzzleSlave[i]).replaceAll("^-+|-+$", "");
-
-                    if(slaveRow.equals(masterRow) && horizontalWords.contains(slaveRow) && !completedWords.contains(slaveRow)){
-                        completedWords.add(slaveRow);
-                        System.out.println("Added 1 word guessed to: " + username);
-                    }
-
-                    Integer middleColumn = puzzleMaster[i].length/2;
-                    String masterColumn = "";
-                    String slaveColumn = "";
-
-                    for (int k = 0; k < puzzleMaster.length; k++) {
- 
-                        masterColumn += puzzleMaster[k][middleColumn];
-                        slaveColumn += puzzleSlave[k][middleColumn];
-                    }
-
-                    if (slaveColumn.equals(masterColumn) && !completedWords.contains(slaveColumn)){
-                        completedWords.add(slaveColumn);
-                        System.out.println("Added 1 word guessed to: " + username);
-                    }
-                }
+        int[] cells = letterCells.get(guess);
+        if (cells != null) {
+            for (int cell : cells) {
+                revealCell(username, cell);
             }
         }
+        advanceVersion(version + 1);
 
-        if (Arrays.deepEquals(puzzleSlave, puzzleMaster)) {
+        if (unrevealedCells == 0) {
             System.out.println("Puzzle slave matches puzzle master!");
             return true;
         }
@@ -102,59 +388,82 @@ public class PuzzleObject {
 
     /**
      * Processes a word guess in the puzzle.
-     * Decrements the guess counter and checks if the guessed word
-     * is either the stem word or one of the horizontal words in the puzzleMaster grid.
-     * If found, updates the corresponding positions in the puzzleSlave grid with the
-     * characters of the guessed word.
+     * Decrements the guess counter and looks the guessed word up among the
+     * placed words, that is the stem and the horizontal words. If found,
+     * reveals exactly the cells the word was placed in; otherwise nothing
+     * else is done.
      * 
      * @param guess The word guessed by the player.
-     * @return true if the puzzleSlave matches the puzzleMaster after the guess,
+     * @return true if every cell of the puzzleMaster is revealed after the guess,
      *         indicating the puzzle is solved; otherwise, returns false.
      */
     public Boolean guessWord(String username, String guess){
+        return applyGuess(new Guess(username, '\0', guess));
+    }
+
+    private boolean applyWordGuess(String username, String guess){
 
         System.out.println("Game ID: " + gameID + " guessing " + guess);
         this.guessCounter--;
 
-        if (guess.equals(this.stem)) {
-
-            for (int i = 0; i < puzzleMaster.length; i++) {
-                puzzleSlave[i][puzzleMaster[i].length/2] = stem.charAt(i);
-            }
-
-            if(!completedWords.contains(stem)){
-                completedWords.add(stem);
-                System.out.println("Added 1 word guessed to: " + username);
+        Integer word = placedWordIndex.get(guess);
+        if (word != null) {
+            for (int cell : wordCells.get(word)) {
+                revealCell(username, cell);
             }
+        }
+        advanceVersion(version + 1);
 
-        } else if (horizontalWords.contains(guess)) {
-
-            for (int i = 0; i < puzzleMaster.length; i += 2) {
+        if (unrevealedCells == 0) {
+            System.out.println("Puzzle slave matches puzzle master!");
+            return true;
+        }
+        return false;
+    }
 
-                String line = "";
+    /**
+     * Queues a guess and waits until it has been applied. If no other
+     * thread is applying guesses, this thread applies every queued guess,
+     * including ones queued by other threads, and publishes the result.
+     *
+     * @param guess the guess to apply
+     * @return true if the puzzle was solved by the guess
+     */
+    private boolean applyGuess(Guess guess) {
 
-                for (int j = 0; j < puzzleMaster[i].length; j++) {
-                    line += puzzleMaster[i][j];
-                }
+        pendingGuesses.add(guess);
 
-                if (line.contains(guess)) {
-                    for (int j = 0; j < puzzleMaster[i].length; j++) {
-                        puzzleSlave[i][j] = puzzleMaster[i][j];
-                    }
+        synchronized (writeLock) {
 
-                    if(!completedWords.contains(guess)){
-                        completedWords.add(guess);
-                        System.out.println("Added 1 word guessed to: " + username);
-                    }
-                }
+            if (!guess.done) {
+                applyPendingGuesses();
+                publish();
             }
         }
+        return guess.solved;
+    }
 
-        if (Arrays.deepEquals(puzzleSlave, puzzleMaster)) {
-            System.out.println("Puzzle slave matches puzzle master!");
-            return true;
+    /**
+     * Applies every queued guess in order. Must be called while holding
+     * the write lock.
+     */
+    private void applyPendingGuesses() {
+
+        Guess guess;
+        while ((guess = pendingGuesses.poll()) != null) {
+            guess.solved = guess.word == null
+                    ? applyCharGuess(guess.username, guess.letter)
+                    : applyWordGuess(guess.username, guess.word);
+            guess.done = true;
         }
-        return false;
+    }
+
+    /**
+     * Publishes a snapshot of the grid as it is now. Must be called while
+     * holding the write lock, or from a constructor.
+     */
+    private void publish() {
+        puzzleGrid = new PuzzleGrid(rows, columns, puzzleMaster, revealedCells, wordSpans, version);
     }
 
     /**
@@ -180,55 +489,132 @@ public class PuzzleObject {
     }
 
     /**
-     * Retrieves a copy of the current puzzle state, which is the best guess the 
-     * players have made so far. The copy is a 2D array of characters, where the 
-     * first dimension is the row and the second is the column. The characters in 
-     * the array are either the letters guessed so far, or '-' if the corresponding 
-     * letter has not been guessed yet.
+     * Retrieves an immutable snapshot of the current puzzle state, which is
+     * the best guess the players have made so far. A snapshot is published
+     * once per batch of guesses, so reading it never takes a lock.
      * 
-     * @return A copy of the current puzzle state as a 2D array of characters.
+     * @return A snapshot of the current puzzle state.
+     */
+    public PuzzleGrid getPuzzleGrid() {
+        return puzzleGrid;
+    }
+    
+    /**
+     * Retrieves the version of the puzzle, which is the number of guesses it
+     * has processed. Replicas that processed the same guesses have the same
+     * version and the same revealed cells.
+     *
+     * @return the version of the puzzle
+     */
+    public int getVersion() {
+        return puzzleGrid.getVersion();
+    }
+
+    /**
+     * Builds a delta holding every cell revealed since the given version,
+     * grouped into runs of consecutive cells. Cells revealed before this
+     * replica was created are all attributed to the version it was created
+     * at, so a delta from an earlier version may hold more cells than
+     * strictly needed, which is harmless when it is applied.
+     *
+     * @param fromVersion the version the receiver has
+     * @return the delta from fromVersion to the current version
      */
-    public char[][] getPuzzleSlaveCopy() {
+    public PuzzleDelta getDeltaSince(int fromVersion) {
+
+        int from;
+        int to;
+        int guessesLeft;
+        int[] cells;
+        synchronized (writeLock) {
+            from = Math.max(0, Math.min(fromVersion, version));
+            to = version;
+            guessesLeft = guessCounter;
+            cells = Arrays.copyOfRange(revealOrder, versionEnds[from], revealCount);
+        }
+        Arrays.sort(cells);
 
-        lock.lock();
-        char[][] copy = new char[puzzleSlave.length][puzzleSlave[0].length];
+        List<Integer> runStarts = new ArrayList<>();
+        List<String> runLetters = new ArrayList<>();
+
+        for (int i = 0; i < cells.length; ) {
+
+            int start = i;
+            while (i + 1 < cells.length && cells[i + 1] == cells[i] + 1) {
+                i++;
+            }
+            i++;
 
-        for (int i = 0; i < puzzleSlave.length; i++) {
-            copy[i] = Arrays.copyOf(puzzleSlave[i], puzzleSlave[i].length);
+            runStarts.add(cells[start]);
+            runLetters.add(puzzleMaster.substring(cells[start], cells[start] + i - start));
         }
 
-        lock.unlock();
-        return copy;
+        return new PuzzleDelta(from, to, guessesLeft,
+                runStarts.stream().mapToInt(Integer::intValue).toArray(), runLetters.toArray(new String[0]));
     }
-    
+
+    /**
+     * Applies a delta received from another replica. A delta this replica
+     * is already at or past is ignored, so applying a delta more than once
+     * is harmless. A delta that starts after this replica's version cannot
+     * be applied, since the guesses in between are missing.
+     *
+     * @param delta the delta to apply
+     * @return true if the replica is now at or past the delta's version,
+     *         false if the delta starts after this replica's version
+     */
+    public Boolean applyDelta(PuzzleDelta delta) {
+
+        synchronized (writeLock) {
+
+            applyPendingGuesses();
+
+            if (delta.getToVersion() <= version) {
+                publish();
+                return true;
+            }
+            if (delta.getFromVersion() > version) {
+                publish();
+                return false;
+            }
+
+            for (int run = 0; run < delta.getRunCount(); run++) {
+                int start = delta.getRunStart(run);
+                for (int i = 0; i < delta.getRunLetters(run).length(); i++) {
+                    revealCell("delta", start + i);
+                }
+            }
+
+            this.guessCounter = delta.getGuessCounter();
+            advanceVersion(delta.getToVersion());
+            publish();
+            return true;
+        }
+    }
+
     /**
      * Initializes the puzzle by setting up the stem word and horizontal words
-     * using the WordRepositoryInterface. The method calculates the initial
+     * chosen by the PuzzleGenerator. The method calculates the initial
      * guess counter based on the length of the stem and horizontal words
-     * multiplied by the difficulty factor. It retrieves words from the
-     * repository to populate the horizontalWords list and ensures it contains
-     * the correct number of words. It then calls initPuzzleMaster and
-     * initPuzzleSlave to set up the puzzle grids.
+     * multiplied by the difficulty factor. The stem and one horizontal word
+     * for every second letter of the stem are chosen in a single call. It
+     * then calls initPuzzleMaster and initPuzzleSlave to set up the puzzle
+     * grids.
      * 
      * @throws Exception if an error occurs during the lookup or retrieval of words
      */
     private void initPuzzle() {
 
         try {
-            this.wordRepo = (WordRepositoryInterface) Naming.lookup("rmi://localhost/WordRepository");
-            this.stem = this.wordRepo.getWord((this.numWords - 1) * 2);
-            this.guessCounter = this.stem.length() * 100; //hardcoded guesses
-
-            String word;
-            for (int i = 0; i < stem.length(); i += 2) {
-                word = this.wordRepo.getWord(String.valueOf(stem.charAt(i)));
-                horizontalWords.add(word);
-                this.guessCounter += word.length() * difficultyFactor;
-                if (horizontalWords.size() == numWords - 1) break;
-            }
+            List<String> puzzleWords = this.generator.chooseWords(this.numWords);
+            this.stem = puzzleWords.get(0);
+            this.horizontalWords.addAll(puzzleWords.subList(1, puzzleWords.size()));
 
+            initGuessCounter();
             initPuzzleMaster();
             initPuzzleSlave();
+            initSolveTracking();
+            publish();
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -236,11 +622,25 @@ public class PuzzleObject {
     }
 
     /**
-     * Initializes the puzzleMaster 2D array with the given stem and horizontal words.
-     * The puzzleMaster is a 2D array of characters, where each row represents a line
-     * in the puzzle and each column represents a letter in the puzzle.
+     * Calculates the initial guess counter based on the length of the stem
+     * and horizontal words multiplied by the difficulty factor.
+     */
+    private void initGuessCounter(){
+
+        int guesses = this.stem.length() * 100; //hardcoded guesses
+
+        for (String word : horizontalWords) {
+            guesses += word.length() * difficultyFactor;
+        }
+        this.guessCounter = guesses;
+    }
+
+    /**
+     * Initializes the puzzleMaster grid with the given stem and horizontal words.
+     * The puzzleMaster holds the letter of every cell row by row, where each row
+     * represents a line in the puzzle and each column represents a letter in the puzzle.
      * The puzzleMaster is initialized such that each row has enough columns to fit the
-     * longest horizontal word, and each column is initialized with a '.' character.
+     * longest horizontal word, and each cell is initialized with a '.' character.
      * The stem is then placed vertically in the middle of the puzzleMaster, and each
      * horizontal word is placed at the correct position in the puzzleMaster such that
      * the intersecting letter of the horizontal word and the stem lines up.
@@ -260,17 +660,20 @@ public class PuzzleObject {
         }
 
         int xSize = longest.length() * 2;
-        this.puzzleMaster = new char[ySize][xSize];
+        char[][] grid = new char[ySize][xSize];
 
         for (int i = 0; i < ySize; i++) {
             for (int j = 0; j < xSize; j++) {
-                puzzleMaster[i][j] = '.';
+                grid[i][j] = PuzzleGrid.EMPTY;
             }
         }
 
+        int[] stemCells = new int[ySize];
         for (int i = 0; i < ySize; i++) {
-            puzzleMaster[i][xSize/2] = stem.charAt(i);
+            grid[i][xSize/2] = stem.charAt(i);
+            stemCells[i] = i * xSize + xSize/2;
         }
+        placeWord(stem, stemCells);
 
         int stemIndex = 0;
         for (int i = 0; i < horizontalWords.size(); i++) {
@@ -280,38 +683,153 @@ public class PuzzleObject {
             int offset = word.indexOf(intersectChar);
             int startColumn = xSize/2 - offset;
 
+            int[] cells = new int[word.length()];
             for (int j = 0; j < word.length(); j++) {
-                puzzleMaster[stemIndex][startColumn + j] = word.charAt(j);
+                grid[stemIndex][startColumn + j] = word.charAt(j);
+                cells[j] = stemIndex * xSize + startColumn + j;
             }
+            placeWord(word, cells);
 
             stemIndex += 2;
         }
      
-        for (char[] row : puzzleMaster) {
+        StringBuilder master = new StringBuilder(ySize * xSize);
+        for (char[] row : grid) {
             System.out.println(new String(row));
+            master.append(row);
         }
+
+        this.rows = ySize;
+        this.columns = xSize;
+        this.puzzleMaster = master.toString();
     }
 
     /**
-     * Initializes the puzzleSlave 2D array with the same dimensions as the
-     * puzzleMaster. The puzzleSlave is initialized such that any '.' character
-     * in the puzzleMaster is replaced with a '.' character in the puzzleSlave
-     * and any other character in the puzzleMaster is replaced with a '-'
-     * character in the puzzleSlave.
+     * Records the cells a word was placed in, so that a guess of the word can
+     * find them with a single lookup.
+     *
+     * @param word the placed word
+     * @param cells the cells holding the word's letters, in order
+     */
+    private void placeWord(String word, int[] cells){
+        placedWordIndex.put(word, placedWords.size());
+        placedWords.add(word);
+        wordCells.add(cells);
+
+        int step = cells.length > 1 ? cells[1] - cells[0] : 1;
+        wordSpans = Arrays.copyOf(wordSpans, wordSpans.length + 3);
+        wordSpans[wordSpans.length - 3] = cells[0];
+        wordSpans[wordSpans.length - 2] = cells.length;
+        wordSpans[wordSpans.length - 1] = step;
+    }
+
+    /**
+     * Initializes the bitmask of revealed cells with one bit per cell of the
+     * puzzleMaster, with every cell hidden.
      */
     private void initPuzzleSlave(){
+        revealedCells = new long[(rows * columns + 63) / 64];
+    }
 
-        puzzleSlave = new char[puzzleMaster.length][puzzleMaster[0].length];
+    /**
+     * Builds the indexes that let guesses update the puzzle incrementally.
+     * Cells are numbered row by row, so the cell at row i and column j is
+     * {@code i * columns + j}. For every letter it records the cells holding
+     * it, for every cell the placed words it belongs to, and it counts the
+     * unrevealed cells of each word and of the whole puzzle. Words that are
+     * already fully revealed, as in a replica of a game in progress, count
+     * as completed.
+     */
+    private void initSolveTracking(){
 
-        for (int i = 0; i < puzzleSlave.length; i++) {
-            for (int j = 0; j < puzzleSlave[i].length; j++) {
-                if (puzzleMaster[i][j] == '.') {
-                    puzzleSlave[i][j] = '.';
-                } else {
-                    puzzleSlave[i][j] = '-';
+        int cellCount = rows * columns;
+        Map<Character, List<Integer>> cellsByLetter = new HashMap<>();
+
+        for (int cell = 0; cell < cellCount; cell++) {
+            char letter = puzzleMaster.charAt(cell);
+            if (letter != PuzzleGrid.EMPTY) {
+                cellsByLetter.computeIfAbsent(letter, key -> new ArrayList<>()).add(cell);
+                if (!isRevealed(cell)) {
+                    unrevealedCells++;
                 }
             }
-        } 
+        }
+
+        for (Map.Entry<Character, List<Integer>> entry : cellsByLetter.entrySet()) {
+            letterCells.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        revealOrder = new int[cellCount];
+        for (int cell = 0; cell < cellCount; cell++) {
+            if (isRevealed(cell)) {
+                revealOrder[revealCount++] = cell;
+            }
+        }
+        versionEnds = new int[Math.max(16, version + 1)];
+        versionEnds[version] = revealCount;
+
+        cellWords = new int[cellCount][0];
+        unrevealedWordCells = new int[placedWords.size()];
+
+        for (int word = 0; word < placedWords.size(); word++) {
+            for (int cell : wordCells.get(word)) {
+                cellWords[cell] = Arrays.copyOf(cellWords[cell], cellWords[cell].length + 1);
+                cellWords[cell][cellWords[cell].length - 1] = word;
+                if (!isRevealed(cell)) {
+                    unrevealedWordCells[word]++;
+                }
+            }
+            if (unrevealedWordCells[word] == 0) {
+                completedWords.add(placedWords.get(word));
+            }
+        }
+    }
+
+    private boolean isRevealed(int cell){
+        return (revealedCells[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Reveals one cell, if it is not revealed yet, and updates the unrevealed
+     * counts. A word whose last cell this was is added to the completed words.
+     *
+     * @param username the player whose guess revealed the cell
+     * @param cell the cell to reveal
+     */
+    private void revealCell(String username, int cell){
+
+        if (isRevealed(cell)) {
+            return;
+        }
+
+        revealedCells[cell >>> 6] |= 1L << cell;
+        revealOrder[revealCount++] = cell;
+        unrevealedCells--;
+
+        for (int word : cellWords[cell]) {
+            if (--unrevealedWordCells[word] == 0) {
+                completedWords.add(placedWords.get(word));
+                System.out.println("Added 1 word guessed to: " + username);
+            }
+        }
+    }
+
+    /**
+     * Moves the puzzle to a later version. Every version in between is
+     * recorded as ending where the new one does, so the cells revealed since
+     * the previous version all belong to the last one.
+     *
+     * @param newVersion the new version
+     */
+    private void advanceVersion(int newVersion){
+
+        if (newVersion >= versionEnds.length) {
+            versionEnds = Arrays.copyOf(versionEnds, Math.max(newVersion + 1, versionEnds.length * 2));
+        }
+        for (int v = version + 1; v <= newVersion; v++) {
+            versionEnds[v] = revealCount;
+        }
+        version = newVersion;
     }
 
     /**
@@ -355,5 +873,24 @@ public class PuzzleObject {
         this.playerSequences.put(username, sequence);
     }
 
+    /**
+     * A queued guess of a letter or a word, and whether it solved the
+     * puzzle once applied.
+     */
+    private static class Guess {
+
+        private final String username;
+        private final char letter;
+        private final String word;
+        private boolean solved;
+        private volatile boolean done;
+
+        private Guess(String username, char letter, String word) {
+            this.username = username;
+            this.letter = letter;
+            this.word = word;
+        }
+    }
+
 
 }
@@ -0,0 +1,182 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of pre-generated puzzles, so that starting a game does not
+ * wait on the WordRepository.
+ *
+ * Puzzles are kept per number of words and difficulty factor, as grids
+ * ready to be turned into a PuzzleObject. Only sizes that have been warmed
+ * are pooled, so the pool stays bounded whatever sizes players ask for.
+ * Taking a puzzle of a pooled size schedules a background worker to
+ * generate a replacement, so the pool refills itself. Only a miss, when no
+ * puzzle of that size is ready or the size is not pooled, generates one on
+ * the calling thread.
+ */
+public class PuzzlePool {
+
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final int capacity;
+    private final PuzzleGenerator generator;
+    private final ScheduledExecutorService workers;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates an empty pool. Nothing is generated until a size is warmed.
+     *
+     * @param capacity the number of puzzles to keep ready for each size
+     * @param workerCount the number of background threads generating puzzles
+     * @param generator the generator that chooses the words of each puzzle
+     */
+    public PuzzlePool(int capacity, int workerCount, PuzzleGenerator generator) {
+        this.capacity = capacity;
+        this.generator = generator;
+        this.workers = Executors.newScheduledThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "puzzle-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a size to the pool and starts filling it in the background.
+     *
+     * @param numWords the number of words in the puzzle
+     * @param difficultyFactor the difficulty factor of the puzzle
+     */
+    public void warm(int numWords, int difficultyFactor) {
+        refill(slot(numWords, difficultyFactor));
+    }
+
+    /**
+     * Takes a puzzle for a new game. A ready puzzle is taken from the pool
+     * in constant time and a replacement is generated in the background;
+     * if none is ready, or the size was never warmed, one is generated now.
+     *
+     * @param username the player starting the game
+     * @param gameID the ID of the game
+     * @param numWords the number of words in the puzzle
+     * @param difficultyFactor the difficulty factor of the puzzle
+     * @return the puzzle for the game
+     */
+    public PuzzleObject take(String username, Integer gameID, Integer numWords, Integer difficultyFactor) {
+
+        Slot slot = slots.get(key(numWords, difficultyFactor));
+        PuzzleGrid grid = slot == null ? null : slot.ready.poll();
+
+        if (grid != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            grid = generate(numWords, difficultyFactor);
+        }
+        if (slot != null) {
+            refill(slot);
+        }
+
+        return new PuzzleObject(username, gameID, grid, difficultyFactor);
+    }
+
+    /**
+     * @return the number of ready puzzles for each size, and the number of
+     *         puzzles taken from the pool and generated on a miss
+     */
+    public String getStats() {
+
+        StringBuilder stats = new StringBuilder();
+        for (Map.Entry<String, Slot> entry : new TreeMap<>(slots).entrySet()) {
+            stats.append(entry.getKey()).append(": ").append(entry.getValue().ready.size())
+                    .append('/').append(capacity).append(" ready\n");
+        }
+        stats.append("hits: ").append(hits.get()).append(", misses: ").append(misses.get());
+        return stats.toString();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private Slot slot(int numWords, int difficultyFactor) {
+        return slots.computeIfAbsent(key(numWords, difficultyFactor), key -> new Slot(numWords, difficultyFactor));
+    }
+
+    private static String key(int numWords, int difficultyFactor) {
+        return numWords + " words, difficulty " + difficultyFactor;
+    }
+
+    /**
+     * Schedules enough workers to bring a size back to capacity, counting
+     * the puzzles already being generated for it.
+     *
+     * @param slot the size to refill
+     */
+    private void refill(Slot slot) {
+
+        while (slot.ready.size() + slot.inFlight.get() < capacity) {
+            if (slot.inFlight.incrementAndGet() + slot.ready.size() > capacity) {
+                slot.inFlight.decrementAndGet();
+                return;
+            }
+            workers.execute(() -> fill(slot));
+        }
+    }
+
+    private void fill(Slot slot) {
+
+        try {
+            slot.ready.offer(generate(slot.numWords, slot.difficultyFactor));
+            slot.inFlight.decrementAndGet();
+
+        } catch (RuntimeException e) {
+            // The WordRepository is probably down; keep the worker reserved
+            // and try again later rather than spinning.
+            System.err.println("Could not generate a puzzle for the pool: " + e.getMessage());
+            workers.schedule(() -> fill(slot), RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Generates a puzzle with the pool's generator.
+     *
+     * @param numWords the number of words in the puzzle
+     * @param difficultyFactor the difficulty factor of the puzzle
+     * @return the grid of the new puzzle
+     * @throws IllegalStateException if the puzzle could not be generated
+     */
+    private PuzzleGrid generate(int numWords, int difficultyFactor) {
+
+        // initPuzzle reports and swallows its own errors, leaving the puzzle
+        // without a grid.
+        PuzzleGrid grid = new PuzzleObject("SERVER", 0, numWords, difficultyFactor, generator).getPuzzleGrid();
+        if (grid == null) {
+            throw new IllegalStateException("puzzle generation failed");
+        }
+        return grid;
+    }
+
+    /**
+     * The ready puzzles of one size and the number being generated.
+     */
+    private static class Slot {
+
+        private final int numWords;
+        private final int difficultyFactor;
+        private final ConcurrentLinkedQueue<PuzzleGrid> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private Slot(int numWords, int difficultyFactor) {
+            this.numWords = numWords;
+            this.difficultyFactor = difficultyFactor;
+        }
+    }
+}
@@ -1,5 +1,12 @@
 import java.rmi.*;
 
 public interface RemoteBroadcastInterface extends Remote{
-    void receive(BroadcastHandler.Message message) throws RemoteException;
+    void receiveBatch(MessageBatch batch) throws RemoteException;
+
+    /**
+     * @return what peers should send this peer's messages to, over the
+     *         transport its BroadcastHandler uses
+     * @throws RemoteException if a remote communication error occurs
+     */
+    RemoteBroadcastInterface getEndpoint() throws RemoteException;
 }
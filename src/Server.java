@@ -12,6 +12,7 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
     private PuzzleObject initialPuzzle;
     private  BroadcastHandler broadcastHandler;
     private String username;
+    private PuzzlePool puzzlePool;
 
     protected Server() throws RemoteException {
         super();
@@ -19,6 +20,10 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
             this.username = "SERVER";
             this.broadcastHandler = new BroadcastHandler(username);
             Naming.rebind("rmi://localhost/" + username + "_Client", this);
+            this.puzzlePool = new PuzzlePool(Constants.PUZZLE_POOL_SIZE, Constants.PUZZLE_POOL_WORKERS, createPuzzleGenerator());
+            for (int numWords : Constants.PUZZLE_POOL_WARM_SIZES) {
+                puzzlePool.warm(numWords, Constants.DIFFICULTY_FACTOR);
+            }
           //  wordRepo = (WordRepositoryInterface) Naming.lookup("rmi://localhost/WordRepository");
         }
 
@@ -29,6 +34,27 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
         }
     }
 
+    /**
+     * Creates the generator for the server's puzzles. With the system property
+     * embeddedDictionary set, the server hosts the WordRepository itself and
+     * generates puzzles against it directly; otherwise it uses the
+     * WordRepository registered with the RMI registry.
+     *
+     * @return the puzzle generator
+     * @throws Exception if the embedded WordRepository cannot be registered
+     */
+    private static PuzzleGenerator createPuzzleGenerator() throws Exception {
+
+        if (!Boolean.getBoolean("embeddedDictionary")) {
+            return PuzzleGenerator.remote();
+        }
+
+        WordRepository wordRepository = new WordRepository();
+        Naming.rebind(PuzzleGenerator.WORD_REPOSITORY_URL, wordRepository);
+        System.out.println("WordRepository is embedded in the game server");
+        return PuzzleGenerator.local(wordRepository);
+    }
+
     public static void main(String[] args) {
 
         try {
@@ -42,16 +68,76 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
     }
 
 
-    public synchronized void startGame(String username, Integer numWords, Integer numberOfPlayers)
+    /**
+     * Starts a new game, with messages ordered as set by the system property
+     * orderingMode, which is LAMPORT by default.
+     *
+     * @throws RemoteException if a game is already in progress or no puzzle could be generated
+     */
+    public void startGame(String username, Integer numWords, Integer numberOfPlayers)
             throws RemoteException {
-        if (currentGame != null) {
-            throw new RemoteException("A game is already in progess");
+        startGame(username, numWords, numberOfPlayers, System.getProperty("orderingMode", "LAMPORT"));
+    }
+
+    /**
+     * Starts a new game with a puzzle taken from the puzzle pool. The puzzle
+     * is taken without holding the server's lock, so other calls are not
+     * held up if it has to be generated on a pool miss.
+     *
+     * The game's messages are put in total order either with Lamport clocks
+     * or by this server acting as the sequencer.
+     *
+     * @param orderingMode LAMPORT or SEQUENCER
+     * @throws RemoteException if a game is already in progress, the ordering
+     *         mode is unknown or no puzzle could be generated
+     */
+    public void startGame(String username, Integer numWords, Integer numberOfPlayers, String orderingMode)
+            throws RemoteException {
+
+        BroadcastHandler.Ordering ordering;
+        try {
+            ordering = BroadcastHandler.Ordering.valueOf(orderingMode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RemoteException("Unknown ordering mode " + orderingMode);
+        }
+
+        synchronized (this) {
+            if (currentGame != null) {
+                throw new RemoteException("A game is already in progess");
+            }
         }
-        
-        currentGame = new GameState(this, numWords, numberOfPlayers, username);
-        gamesMap.put(1,new PuzzleObject(username, 1, numWords, 100));
-        broadcastHandler.broadcast("STATE", getGameState());
 
+        PuzzleObject puzzle;
+        try {
+            puzzle = puzzlePool.take(username, 1, numWords, Constants.DIFFICULTY_FACTOR);
+        } catch (IllegalStateException e) {
+            throw new RemoteException("Could not generate a puzzle", e);
+        }
+
+        synchronized (this) {
+            if (currentGame != null) {
+                throw new RemoteException("A game is already in progess");
+            }
+            currentGame = new GameState(this, numWords, numberOfPlayers, username, ordering);
+            if (ordering == BroadcastHandler.Ordering.SEQUENCER) {
+                broadcastHandler.useSequencer(this.username, null);
+            } else {
+                broadcastHandler.useLamportOrdering();
+            }
+            gamesMap.put(1, puzzle);
+            broadcastHandler.broadcast("STATE", getGameState());
+        }
+    }
+
+    /**
+     * Reports how many puzzles are ready in the pool for each size and how
+     * often a game started with a ready puzzle.
+     *
+     * @return the puzzle pool statistics
+     * @throws RemoteException if a remote communication error occurs
+     */
+    public String getPuzzlePoolStats() throws RemoteException {
+        return puzzlePool.getStats();
     }
 
     public synchronized Boolean joinGame(Integer gameID, String username) throws RemoteException {
@@ -87,6 +173,23 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
         return currentGame.getPlayerList();
     }
 
+    /**
+     * Retrieves the sequencer of a game whose messages are ordered by one.
+     * Players should switch to it before joining, so that they receive
+     * every numbered message from the start of the game.
+     *
+     * @param gameID the ID of the game
+     * @return the sequencer, or null if the game uses Lamport ordering or does not exist
+     * @throws RemoteException if a remote communication error occurs
+     */
+    public synchronized RemoteBroadcastInterface getSequencer(Integer gameID) throws RemoteException {
+        if (currentGame == null || currentGame.getGameID() != gameID
+                || currentGame.getOrdering() != BroadcastHandler.Ordering.SEQUENCER) {
+            return null;
+        }
+        return broadcastHandler.getEndpoint();
+    }
+
     public synchronized Map<String, RemoteBroadcastInterface> getPlayerReferences() throws RemoteException {
         if (currentGame == null) {
             return Collections.emptyMap();
@@ -97,7 +200,7 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
             try {
                 RemoteBroadcastInterface playerRef = (RemoteBroadcastInterface) Naming
                         .lookup("rmi://localhost/" + player + "_Client");
-                references.put(player, playerRef);
+                references.put(player, playerRef.getEndpoint());
 
             } catch (Exception e) {
                 System.err.println("Could not locate player reference: " + player);
@@ -114,8 +217,8 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
         return currentGame.getPlayerCount();
     }
 
-     public char[][] getInitialPuzzle(Integer gameID) throws RemoteException {
-        return gamesMap.get(gameID).getPuzzleSlaveCopy();
+     public PuzzleGrid getInitialPuzzle(Integer gameID) throws RemoteException {
+        return gamesMap.get(gameID).getPuzzleGrid();
     }
 
     private class GameState {
@@ -123,13 +226,16 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
         private final int gameID;
         private final int numWords;
         private final int requiredPlayers;
+        private final BroadcastHandler.Ordering ordering;
         private final Set<String> players = new HashSet<>();
 
-        public GameState(Server server, int numWords, int requiredPlayers, String creator) {
+        public GameState(Server server, int numWords, int requiredPlayers, String creator,
+                BroadcastHandler.Ordering ordering) {
             this.server = server;
             this.gameID = 1;
             this.numWords = numWords;
             this.requiredPlayers = requiredPlayers;
+            this.ordering = ordering;
             this.players.add(creator);
         }
     
@@ -175,6 +281,10 @@ public class Server extends UnicastRemoteObject implements CrissCrossPuzzleInter
             return gameID;
         }
 
+        public BroadcastHandler.Ordering getOrdering() {
+            return ordering;
+        }
+
     }
 
    
@@ -0,0 +1,75 @@
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+
+/**
+ * Carries messages between BroadcastHandlers.
+ *
+ * A handler exports itself through a transport, which returns the endpoint
+ * its peers send to. An endpoint is itself a RemoteBroadcastInterface, so
+ * it can be handed to peers through the server like any RMI reference, and
+ * a handler sends to it without knowing which transport is underneath.
+ *
+ * There are two transports. The RMI transport sends every batch as an RMI
+ * call, and its endpoint is the handler's own stub. The NIO transport sends
+ * length-prefixed frames over persistent sockets driven by one selector
+ * thread; see {@link NioTransport}.
+ */
+public interface Transport {
+
+    /**
+     * Starts receiving messages for a handler.
+     *
+     * @param receiver the handler to pass received messages to
+     * @return the endpoint peers send the handler's messages to
+     * @throws RemoteException if the handler cannot be exported
+     */
+    RemoteBroadcastInterface export(RemoteBroadcastInterface receiver) throws RemoteException;
+
+    /**
+     * @return the transport that sends messages as RMI calls
+     */
+    static Transport rmi() {
+        return RmiTransport.INSTANCE;
+    }
+
+    /**
+     * @return the shared transport that sends messages over NIO sockets
+     */
+    static Transport nio() {
+        return NioTransport.shared();
+    }
+
+    /**
+     * @return the transport named by the system property broadcastTransport,
+     *         rmi or nio, which is rmi by default
+     */
+    static Transport configured() {
+
+        String name = System.getProperty("broadcastTransport", "rmi");
+        switch (name.toLowerCase()) {
+            case "rmi":
+                return rmi();
+            case "nio":
+                return nio();
+            default:
+                throw new IllegalArgumentException("Unknown broadcast transport " + name);
+        }
+    }
+
+    /**
+     * Sends messages as RMI calls to the handler's stub. The handler must
+     * already be exported as a remote object.
+     */
+    class RmiTransport implements Transport {
+
+        private static final RmiTransport INSTANCE = new RmiTransport();
+
+        private RmiTransport() {
+        }
+
+        @Override
+        public RemoteBroadcastInterface export(RemoteBroadcastInterface receiver) throws RemoteException {
+            return (RemoteBroadcastInterface) RemoteObject.toStub(receiver);
+        }
+    }
+}
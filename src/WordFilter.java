@@ -0,0 +1,95 @@
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * A Bloom filter over every word in one version of the dictionary.
+ *
+ * Clients download it once from the WordRepository so that words that
+ * are definitely not in the dictionary can be answered locally. A word the
+ * filter might contain still has to be checked with the repository, since
+ * about one in a hundred misses will be reported as a possible hit.
+ */
+public class WordFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final long version;
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * Builds a filter over the given words.
+     *
+     * @param words the words in the dictionary
+     * @param version the version of the dictionary the words come from
+     */
+    public WordFilter(Collection<String> words, long version) {
+
+        this.version = version;
+
+        int expected = Math.max(words.size(), 1);
+        this.bitCount = (int) Math.max(64, Math.ceil(-expected * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2))));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+        this.bits = new long[(bitCount + 63) / 64];
+
+        for (String word : words) {
+            long hash = hash(word);
+            int first = (int) hash;
+            int second = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = Math.floorMod(first + i * second, bitCount);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Checks if a word might be in the dictionary.
+     *
+     * @param word the lowercase word to check
+     * @return false if the word is definitely not in the dictionary, true if it might be
+     */
+    public boolean mightContain(String word) {
+
+        long hash = hash(word);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(first + i * second, bitCount);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the version of the dictionary this filter was built from
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of a word's characters, finished with a mix so
+     * that both halves are usable as independent hashes.
+     *
+     * @param word the word to hash
+     * @return the hash
+     */
+    private static long hash(String word) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,785 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * An immutable, indexed set of words used by the WordRepository.
+ *
+ * The whole index lives in a single packed buffer, laid out as follows
+ * (all integers are big-endian):
+ *
+ * <pre>
+ * header    magic, version, word count, max length, letter count,
+ *           posting count, position count, position posting count,
+ *           hash table size
+ * lengths   int[maxLength + 2], the id of the first word with at least n letters
+ * offsets   int[wordCount + 1], where each word's bytes start in the data section
+ * letters   letterCount entries of (letter, first posting, posting count)
+ * postings  int[postingCount], word ids grouped by the letters they contain
+ * positions positionCount entries of (position &lt;&lt; 16 | letter, first
+ *           posting, posting count)
+ * position  int[positionPostingCount], word ids grouped by the letter at
+ * postings  each position
+ * table     int[tableSize], open-addressed hash table of word id + 1 (0 is empty)
+ * data      the UTF-8 bytes of every word, shortest first
+ * </pre>
+ *
+ * Word ids are ordered by length, so every word of at least a given length
+ * is a suffix of the ids, and every group of postings is ordered by length
+ * as well, so a length range within it is found by binary search.
+ *
+ * The same layout is used in memory and on disk, so a compiled dictionary
+ * can be memory-mapped and served directly, and a word is only decoded into
+ * a String when it is returned.
+ *
+ * Since nothing changes after construction, any number of threads can read
+ * an index without locking.
+ */
+public class WordIndex {
+
+    public static final WordIndex EMPTY = new WordIndex(Collections.emptyList());
+
+    private static final int MAGIC = 0x57444958; // "WDIX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 9 * Integer.BYTES;
+    private static final int ENTRY_SIZE = 3 * Integer.BYTES;
+    private static final char WILDCARD = '?';
+
+    private final ByteBuffer buffer;
+    private final int wordCount;
+    private final int maxLength;
+    private final int letterCount;
+    private final int positionCount;
+    private final int tableSize;
+    private final int lengthsStart;
+    private final int offsetsStart;
+    private final int lettersStart;
+    private final int postingsStart;
+    private final int positionsStart;
+    private final int positionPostingsStart;
+    private final int tableStart;
+    private final int dataStart;
+    private final List<String> all;
+
+    /**
+     * Builds an index over the given words in memory. Duplicate words are
+     * indexed once.
+     *
+     * @param source the words to be indexed
+     */
+    public WordIndex(Collection<String> source) {
+        this(encode(source));
+    }
+
+    /**
+     * Wraps a buffer holding a packed index, checking its header, that every
+     * section fits in the buffer, and that the length table and the letter
+     * and position entries point inside their sections. The per-word offsets,
+     * postings and hash table are not walked, so this stays independent of
+     * the number of words.
+     *
+     * @param buffer the packed index
+     * @throws IllegalArgumentException if the buffer is not a valid index
+     */
+    private WordIndex(ByteBuffer buffer) {
+
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated header: only " + buffer.capacity() + " bytes");
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a version " + VERSION + " word index");
+        }
+
+        this.wordCount = buffer.getInt(8);
+        this.maxLength = buffer.getInt(12);
+        this.letterCount = buffer.getInt(16);
+        int postingCount = buffer.getInt(20);
+        this.positionCount = buffer.getInt(24);
+        int positionPostingCount = buffer.getInt(28);
+        this.tableSize = buffer.getInt(32);
+
+        if (wordCount < 0 || maxLength < 0 || letterCount < 0 || postingCount < 0 || positionCount < 0
+                || positionPostingCount < 0 || tableSize < 0) {
+            throw new IllegalArgumentException("Negative section size in header");
+        }
+        if (tableSize == 0 ? wordCount != 0 : Integer.bitCount(tableSize) != 1 || tableSize <= wordCount) {
+            throw new IllegalArgumentException("Bad hash table size " + tableSize + " for " + wordCount + " words");
+        }
+        long sectionsEnd = HEADER_SIZE
+                + ((long) maxLength + 2) * Integer.BYTES
+                + ((long) wordCount + 1) * Integer.BYTES
+                + (long) letterCount * ENTRY_SIZE
+                + (long) postingCount * Integer.BYTES
+                + (long) positionCount * ENTRY_SIZE
+                + (long) positionPostingCount * Integer.BYTES
+                + (long) tableSize * Integer.BYTES;
+        if (sectionsEnd > buffer.capacity()) {
+            throw new IllegalArgumentException("Truncated: the sections need " + sectionsEnd
+                    + " bytes, but there are only " + buffer.capacity());
+        }
+
+        this.lengthsStart = HEADER_SIZE;
+        this.offsetsStart = lengthsStart + (maxLength + 2) * Integer.BYTES;
+        this.lettersStart = offsetsStart + (wordCount + 1) * Integer.BYTES;
+        this.postingsStart = lettersStart + letterCount * ENTRY_SIZE;
+        this.positionsStart = postingsStart + postingCount * Integer.BYTES;
+        this.positionPostingsStart = positionsStart + positionCount * ENTRY_SIZE;
+        this.tableStart = positionPostingsStart + positionPostingCount * Integer.BYTES;
+        this.dataStart = tableStart + tableSize * Integer.BYTES;
+
+        int dataLength = buffer.getInt(offsetsStart + wordCount * Integer.BYTES);
+        if (buffer.getInt(offsetsStart) != 0 || dataLength < 0 || (long) dataStart + dataLength > buffer.capacity()) {
+            throw new IllegalArgumentException("Truncated: the word data needs " + ((long) dataStart + dataLength)
+                    + " bytes, but there are only " + buffer.capacity());
+        }
+        int previous = 0;
+        for (int length = 0; length <= maxLength + 1; length++) {
+            int first = buffer.getInt(lengthsStart + length * Integer.BYTES);
+            if (first < previous || first > wordCount) {
+                throw new IllegalArgumentException("Bad length table entry for length " + length);
+            }
+            previous = first;
+        }
+        checkEntries(lettersStart, letterCount, postingCount, "letter");
+        checkEntries(positionsStart, positionCount, positionPostingCount, "position");
+
+        this.all = new WordList(0, wordCount, -1);
+    }
+
+    /**
+     * Checks that every (key, first posting, posting count) entry of a table
+     * points inside its postings section.
+     *
+     * @throws IllegalArgumentException if an entry points outside it
+     */
+    private void checkEntries(int start, int count, int postingCount, String what) {
+
+        for (int i = 0; i < count; i++) {
+            int entry = start + i * ENTRY_SIZE;
+            int first = buffer.getInt(entry + Integer.BYTES);
+            int size = buffer.getInt(entry + 2 * Integer.BYTES);
+            if (first < 0 || size < 0 || (long) first + size > postingCount) {
+                throw new IllegalArgumentException("Bad " + what + " entry " + i + ": postings "
+                        + first + " to " + ((long) first + size) + " of " + postingCount);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a compiled index from disk. The file is read lazily by the
+     * operating system, so loading is independent of the dictionary size.
+     *
+     * @param path the compiled index file
+     * @return the mapped index
+     * @throws IOException if the file cannot be read or is not a word index
+     */
+    public static WordIndex map(Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return new WordIndex(mapped);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " is not a valid word index: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes this index to disk in the format read by {@link #map(Path)}.
+     * The file is written under a temporary name and then moved into place,
+     * so a reader never maps a half-written index.
+     *
+     * @param path the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+            channel.force(true);
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Checks if a word is in the index. The word is compared against the
+     * packed bytes, so no String is created for the words it is checked against.
+     *
+     * @param word the word to look up
+     * @return true if the word is in the index, false otherwise
+     */
+    public boolean contains(String word) {
+
+        if (tableSize == 0) {
+            return false;
+        }
+
+        // ASCII words are hashed and compared straight from their chars, which
+        // saves encoding every lookup; anything else goes through UTF-8 bytes.
+        byte[] bytes = isAscii(word) ? null : word.getBytes(StandardCharsets.UTF_8);
+        int mask = tableSize - 1;
+        int hash = bytes == null ? hash(word) : hash(bytes);
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+
+            int entry = buffer.getInt(tableStart + slot * Integer.BYTES);
+            if (entry == 0) {
+                return false;
+            }
+            if (bytes == null ? wordEquals(entry - 1, word) : wordEquals(entry - 1, bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of words in the index
+     */
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * @return every word in the index, shortest first
+     */
+    public List<String> all() {
+        return all;
+    }
+
+    /**
+     * Retrieves every word that is at least {@code minLength} characters long.
+     * The result is a view of the index, so this is O(1).
+     *
+     * @param minLength the minimum length of the words
+     * @return the words that meet the minimum length requirement
+     */
+    public List<String> withMinLength(int minLength) {
+
+        int first = firstWithLength(minLength);
+        return first == 0 ? all : new WordList(first, wordCount - first, -1);
+    }
+
+    /**
+     * Retrieves every word that contains the given letter. The letters are
+     * sorted, so the letter's postings are found by binary search.
+     *
+     * @param letter the letter the words must contain
+     * @return the words that contain the letter
+     */
+    public List<String> withLetter(char letter) {
+
+        int entry = findEntry(lettersStart, letterCount, letter);
+        if (entry < 0) {
+            return Collections.emptyList();
+        }
+        return new WordList(buffer.getInt(entry + Integer.BYTES), buffer.getInt(entry + 2 * Integer.BYTES), postingsStart);
+    }
+
+    /**
+     * Retrieves every word that has the given letter at the given position
+     * and a length between {@code minLength} and {@code maxLength}. The
+     * words are found with one binary search for the position and letter
+     * and two for the length range, so this is O(log n).
+     *
+     * @param letter the letter the words must have
+     * @param position the zero-based position of the letter
+     * @param minLength the minimum length of the words
+     * @param maxLength the maximum length of the words
+     * @return the matching words
+     */
+    public List<String> withLetterAt(char letter, int position, int minLength, int maxLength) {
+
+        int[] range = letterAtRange(letter, position, minLength, maxLength);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+        return new WordList(range[0], range[1] - range[0], positionPostingsStart);
+    }
+
+    /**
+     * Retrieves every word that matches a pattern of the same length, where
+     * {@code ?} matches any letter and every other character must match
+     * exactly. For example {@code ?a??e} matches "maple" and "table".
+     *
+     * The postings of the rarest fixed letter are walked and every other
+     * fixed letter is checked by binary search in its own postings, so no
+     * word outside those postings is ever looked at.
+     *
+     * @param pattern the pattern to match
+     * @return the matching words
+     */
+    public List<String> matching(String pattern) {
+
+        int length = pattern.length();
+        List<int[]> ranges = new ArrayList<>();
+
+        for (int position = 0; position < length; position++) {
+
+            char letter = pattern.charAt(position);
+            if (letter == WILDCARD) {
+                continue;
+            }
+
+            int[] range = letterAtRange(letter, position, length, length);
+            if (range == null) {
+                return Collections.emptyList();
+            }
+            ranges.add(range);
+        }
+
+        if (ranges.isEmpty()) {
+            int first = firstWithLength(length);
+            return new WordList(first, firstWithLength(length + 1) - first, -1);
+        }
+
+        ranges.sort(Comparator.comparingInt(range -> range[1] - range[0]));
+        int[] rarest = ranges.get(0);
+        int[] ids = new int[rarest[1] - rarest[0]];
+        int matches = 0;
+
+        for (int posting = rarest[0]; posting < rarest[1]; posting++) {
+
+            int id = positionPosting(posting);
+            boolean matched = true;
+
+            for (int i = 1; i < ranges.size() && matched; i++) {
+                int[] range = ranges.get(i);
+                int found = lowerBound(range[0], range[1], id);
+                matched = found < range[1] && positionPosting(found) == id;
+            }
+            if (matched) {
+                ids[matches++] = id;
+            }
+        }
+
+        int[] matchedIds = Arrays.copyOf(ids, matches);
+        return new AbstractRandomAccessList() {
+
+            @Override
+            public String get(int index) {
+                return word(matchedIds[index]);
+            }
+
+            @Override
+            public int size() {
+                return matchedIds.length;
+            }
+        };
+    }
+
+    /**
+     * Finds the range of position postings for words that have the given
+     * letter at the given position and a length in the given range.
+     *
+     * @param letter the letter the words must have
+     * @param position the zero-based position of the letter
+     * @param minLength the minimum length of the words
+     * @param maxLength the maximum length of the words
+     * @return the first and one past the last posting, or null if there are none
+     */
+    private int[] letterAtRange(char letter, int position, int minLength, int maxLength) {
+
+        if (position < 0 || position > Character.MAX_VALUE) {
+            return null;
+        }
+
+        int entry = findEntry(positionsStart, positionCount, position << 16 | letter);
+        if (entry < 0) {
+            return null;
+        }
+
+        int first = buffer.getInt(entry + Integer.BYTES);
+        int count = buffer.getInt(entry + 2 * Integer.BYTES);
+        int low = lowerBound(first, first + count, firstWithLength(minLength));
+        int high = lowerBound(low, first + count, firstWithLength(maxLength + 1));
+
+        return low < high ? new int[] {low, high} : null;
+    }
+
+    /**
+     * Finds the id of the first word with at least the given length.
+     *
+     * @param length the length
+     * @return the id, which is the word count if no word is that long
+     */
+    private int firstWithLength(int length) {
+
+        if (length <= 0) {
+            return 0;
+        }
+        if (length > maxLength) {
+            return wordCount;
+        }
+        return buffer.getInt(lengthsStart + length * Integer.BYTES);
+    }
+
+    /**
+     * Binary searches a sorted table of (key, first posting, posting count)
+     * entries.
+     *
+     * @param start where the table starts in the buffer
+     * @param count the number of entries in the table
+     * @param key the key to find
+     * @return where the matching entry starts in the buffer, or -1 if there is none
+     */
+    private int findEntry(int start, int count, int key) {
+
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+
+            int middle = (low + high) >>> 1;
+            int entry = start + middle * ENTRY_SIZE;
+            int current = buffer.getInt(entry);
+
+            if (current < key) {
+                low = middle + 1;
+            } else if (current > key) {
+                high = middle - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first position posting in [low, high) whose id is at least
+     * the given id.
+     *
+     * @param low the first posting to search
+     * @param high one past the last posting to search
+     * @param id the id to search for
+     * @return the first posting with an id of at least {@code id}, or high
+     */
+    private int lowerBound(int low, int high, int id) {
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positionPosting(middle) < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int positionPosting(int index) {
+        return buffer.getInt(positionPostingsStart + index * Integer.BYTES);
+    }
+
+    /**
+     * Decodes the word with the given id.
+     *
+     * @param id the id of the word
+     * @return the word
+     */
+    private String word(int id) {
+
+        int start = buffer.getInt(offsetsStart + id * Integer.BYTES);
+        int end = buffer.getInt(offsetsStart + (id + 1) * Integer.BYTES);
+
+        byte[] bytes = new byte[end - start];
+        buffer.get(dataStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the word with the given id against the given bytes without
+     * decoding it.
+     *
+     * @param id the id of the word
+     * @param bytes the UTF-8 bytes to compare against
+     * @return true if the word has exactly these bytes
+     */
+    private boolean wordEquals(int id, byte[] bytes) {
+
+        int start = buffer.getInt(offsetsStart + id * Integer.BYTES);
+        int end = buffer.getInt(offsetsStart + (id + 1) * Integer.BYTES);
+
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(dataStart + start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the word with the given id against an ASCII word without
+     * decoding it.
+     *
+     * @param id the id of the word
+     * @param word the ASCII word to compare against
+     * @return true if the word has exactly these characters
+     */
+    private boolean wordEquals(int id, String word) {
+
+        int start = buffer.getInt(offsetsStart + id * Integer.BYTES);
+        int end = buffer.getInt(offsetsStart + (id + 1) * Integer.BYTES);
+
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (buffer.get(dataStart + start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A read-only view of a range of words, either a range of ids or a range
+     * of postings. Words are decoded only when they are fetched.
+     */
+    private abstract static class AbstractRandomAccessList extends AbstractList<String> implements RandomAccess {
+    }
+
+    private class WordList extends AbstractRandomAccessList {
+
+        private final int first;
+        private final int count;
+        private final int postings;
+
+        /**
+         * @param first the first id, or the first posting if postings is not -1
+         * @param count the number of words in the view
+         * @param postings the start of the postings section, or -1 for a range of ids
+         */
+        public WordList(int first, int count, int postings) {
+            this.first = first;
+            this.count = count;
+            this.postings = postings;
+        }
+
+        @Override
+        public String get(int index) {
+
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            if (postings < 0) {
+                return word(first + index);
+            }
+            return word(buffer.getInt(postings + (first + index) * Integer.BYTES));
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    /**
+     * Packs the given words into the index layout described above.
+     *
+     * @param source the words to be indexed
+     * @return a buffer holding the packed index
+     */
+    private static ByteBuffer encode(Collection<String> source) {
+
+        Set<String> unique = new LinkedHashSet<>(source);
+
+        int maxLength = 0;
+        for (String word : unique) {
+            maxLength = Math.max(maxLength, word.length());
+        }
+
+        // Counting sort by length; lengths[n] is the first word with at least n letters.
+        int[] lengths = new int[maxLength + 2];
+        for (String word : unique) {
+            lengths[word.length() + 1]++;
+        }
+        for (int length = 1; length < lengths.length; length++) {
+            lengths[length] += lengths[length - 1];
+        }
+
+        byte[][] words = new byte[unique.size()][];
+        int[] next = Arrays.copyOf(lengths, lengths.length);
+        TreeMap<Integer, List<Integer>> letters = new TreeMap<>();
+        TreeMap<Integer, List<Integer>> positions = new TreeMap<>();
+        for (String word : unique) {
+            words[next[word.length()]++] = word.getBytes(StandardCharsets.UTF_8);
+        }
+        for (int id = 0; id < words.length; id++) {
+            String word = new String(words[id], StandardCharsets.UTF_8);
+            for (char letter : distinctLetters(word)) {
+                letters.computeIfAbsent((int) letter, key -> new ArrayList<>()).add(id);
+            }
+            for (int position = 0; position < word.length() && position <= Character.MAX_VALUE; position++) {
+                positions.computeIfAbsent(position << 16 | word.charAt(position), key -> new ArrayList<>()).add(id);
+            }
+        }
+
+        int postingCount = postingCount(letters);
+        int positionPostingCount = postingCount(positions);
+        int dataSize = 0;
+        for (byte[] word : words) {
+            dataSize += word.length;
+        }
+
+        // Keep the table at most half full so that probe chains stay short.
+        int tableSize = words.length == 0 ? 0 : Integer.highestOneBit(words.length * 2 - 1) << 1;
+
+        int size = HEADER_SIZE
+                + (maxLength + 2) * Integer.BYTES
+                + (words.length + 1) * Integer.BYTES
+                + letters.size() * ENTRY_SIZE
+                + postingCount * Integer.BYTES
+                + positions.size() * ENTRY_SIZE
+                + positionPostingCount * Integer.BYTES
+                + tableSize * Integer.BYTES
+                + dataSize;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(words.length).putInt(maxLength)
+                .putInt(letters.size()).putInt(postingCount)
+                .putInt(positions.size()).putInt(positionPostingCount).putInt(tableSize);
+
+        for (int first : lengths) {
+            buffer.putInt(first);
+        }
+
+        int offset = 0;
+        for (byte[] word : words) {
+            buffer.putInt(offset);
+            offset += word.length;
+        }
+        buffer.putInt(offset);
+
+        putPostings(buffer, letters);
+        putPostings(buffer, positions);
+
+        int[] table = new int[tableSize];
+        for (int id = 0; id < words.length; id++) {
+            int slot = hash(words[id]) & (tableSize - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = id + 1;
+        }
+        for (int entry : table) {
+            buffer.putInt(entry);
+        }
+
+        for (byte[] word : words) {
+            buffer.put(word);
+        }
+
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static int postingCount(Map<Integer, List<Integer>> postings) {
+
+        int count = 0;
+        for (List<Integer> ids : postings.values()) {
+            count += ids.size();
+        }
+        return count;
+    }
+
+    /**
+     * Writes a table of (key, first posting, posting count) entries in key
+     * order, followed by the postings themselves.
+     *
+     * @param buffer the buffer to write to
+     * @param postings the word ids for each key, in ascending order
+     */
+    private static void putPostings(ByteBuffer buffer, TreeMap<Integer, List<Integer>> postings) {
+
+        int posting = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : postings.entrySet()) {
+            buffer.putInt(entry.getKey()).putInt(posting).putInt(entry.getValue().size());
+            posting += entry.getValue().size();
+        }
+        for (List<Integer> ids : postings.values()) {
+            for (int id : ids) {
+                buffer.putInt(id);
+            }
+        }
+    }
+
+    /**
+     * FNV-1a hash of a word's bytes. It is part of the file format, so it
+     * must not change without bumping the version.
+     *
+     * @param bytes the UTF-8 bytes of the word
+     * @return the hash
+     */
+    private static int hash(byte[] bytes) {
+
+        int hash = 0x811c9dc5;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes an ASCII word exactly as {@link #hash(byte[])} would hash its
+     * UTF-8 bytes.
+     *
+     * @param word the ASCII word
+     * @return the hash
+     */
+    private static int hash(String word) {
+
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static boolean isAscii(String word) {
+
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the distinct letters of a word, so that a word with a
+     * repeated letter is indexed under that letter only once.
+     *
+     * @param word the word whose letters are collected
+     * @return the distinct letters of the word
+     */
+    private static Set<Character> distinctLetters(String word) {
+
+        Set<Character> letters = new HashSet<>();
+        for (int i = 0; i < word.length(); i++) {
+            letters.add(word.charAt(i));
+        }
+        return letters;
+    }
+}
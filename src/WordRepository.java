@@ -1,16 +1,47 @@
 import java.rmi.*;
 import java.rmi.server.*;
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 
 public class WordRepository extends UnicastRemoteObject implements WordRepositoryInterface {
 
-    private List<String> words = new ArrayList<>();
+    // Once the mutation log holds this many records it is compacted into
+    // the compiled dictionary in the background, which also becomes the new
+    // base index.
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    private static final String SOURCE_PATH = "words.txt";
+    private static final String COMPILED_PATH = "words.dat";
+    private static final String LOG_PATH = "words.log";
+    private static final String COMPACTING_LOG_PATH = "words.log.compacting";
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(WordIndex.EMPTY));
+    private final Queue<Mutation> pendingMutations = new ConcurrentLinkedQueue<>();
+    private final Object writeLock = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WordRepository-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private MutationLog mutationLog;
+    private volatile WordFilter wordFilter;
 
     public WordRepository() throws RemoteException {
         super();
-        loadWords("words.txt");
+        if (!loadCompiledWords(COMPILED_PATH, SOURCE_PATH)) {
+            loadWords(SOURCE_PATH);
+        }
+        openMutationLog();
     }
 
     public static void main(String[] args) {
@@ -25,9 +56,50 @@ public class WordRepository extends UnicastRemoteObject implements WordRepositor
     }
 
     /**
-     * Loads words from a specified file into the `words` list.
-     * Each word is trimmed of leading and trailing spaces and
-     * converted to lowercase before being added to the list.
+     * Memory-maps a dictionary compiled by {@link DictionaryCompiler}.
+     *
+     * A compiled dictionary may hold changes compacted from the mutation log
+     * that are in no other file, so one that is older than its word list or
+     * cannot be read is never silently replaced by the word list. Instead
+     * the repository refuses to start, and the operator decides which file
+     * to keep; recompiling or removing it throws those changes away.
+     *
+     * @param compiledPath the path to the compiled dictionary
+     * @param sourcePath the path to the word list it was compiled from
+     * @return true if the compiled dictionary was loaded, false if there is none
+     * @throws RemoteException if the compiled dictionary is out of date or
+     *         cannot be read
+     */
+    private boolean loadCompiledWords(String compiledPath, String sourcePath) throws RemoteException {
+
+        File compiled = new File(compiledPath);
+        File source = new File(sourcePath);
+
+        if (!compiled.isFile()) {
+            return false;
+        }
+
+        if (source.isFile() && source.lastModified() > compiled.lastModified()) {
+            throw new RemoteException(sourcePath + " is newer than " + compiledPath
+                    + ", which may hold words added or removed by players that are not in " + sourcePath
+                    + ". To keep serving " + compiledPath + ", touch it or move " + sourcePath
+                    + " aside. Recompiling it from " + sourcePath + " discards those changes");
+        }
+
+        try {
+            snapshot.set(new Snapshot(WordIndex.map(compiled.toPath())));
+            System.out.println("Mapped " + snapshot.get().base.size() + " words from " + compiledPath);
+            return true;
+
+        } catch (IOException e) {
+            throw new RemoteException("Error mapping compiled dictionary " + compiledPath
+                    + ", which may hold words added or removed by players that are in no other file."
+                    + " Restore it from a backup if there is one; recompiling or removing it discards those changes", e);
+        }
+    }
+
+    /**
+     * Loads words from a specified file into the repository.
      * The method prints the total number of words loaded or
      * an error message if the file cannot be read.
      *
@@ -37,16 +109,63 @@ public class WordRepository extends UnicastRemoteObject implements WordRepositor
 
         System.out.println("Loading words from file");
 
+        try {
+            snapshot.set(new Snapshot(new WordIndex(readWords(filepath))));
+            System.out.println("Loaded " + snapshot.get().base.size() + " words.");
+
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replays the mutations logged since the dictionary was last compacted
+     * and opens the log for new ones. A log left behind by a compaction that
+     * did not finish is replayed first; replaying it again is harmless,
+     * since each record just sets whether one word is present.
+     */
+    private void openMutationLog() {
+
+        try {
+            int replayed = 0;
+            for (String path : new String[] {COMPACTING_LOG_PATH, LOG_PATH}) {
+                replayed += MutationLog.replay(Paths.get(path),
+                        (word, add) -> pendingMutations.add(new Mutation(word, add)));
+            }
+
+            synchronized (writeLock) {
+                publishPendingMutations();
+                mutationLog = new MutationLog(Paths.get(LOG_PATH), replayed);
+            }
+
+            if (replayed > 0) {
+                System.out.println("Replayed " + replayed + " logged changes.");
+            }
+            compactIfNeeded();
+
+        } catch (IOException e) {
+            System.err.println("Error opening mutation log, changes will not be saved: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a word list with one word per line. Each word is trimmed of
+     * leading and trailing spaces and converted to lowercase.
+     *
+     * @param filepath the path to the file containing the words
+     * @return the words in the file
+     * @throws IOException if the file cannot be read
+     */
+    static List<String> readWords(String filepath) throws IOException {
+
         try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
 
+            List<String> words = new ArrayList<>();
             String line;
             while ((line = reader.readLine()) != null) {
                 words.add(line.trim().toLowerCase());
             }
-            System.out.println("Loaded " + words.size() + " words.");
-            
-        } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
+            return words;
         }
     }
 
@@ -54,9 +173,9 @@ public class WordRepository extends UnicastRemoteObject implements WordRepositor
      * Adds a word to the word repository if it does not already exist.
      *
      * This method checks if the given word exists in the word repository. If
-     * the word does not exist, it is added to the repository and the repository
-     * is sorted. The method returns true if the word was added and false if
-     * it already exists in the repository.
+     * the word does not exist, it is added to the repository and to the length
+     * and letter indexes. The method returns true if the word was added and
+     * false if it already exists in the repository.
      *
      * @param word the word to be added to the repository
      * @return true if the word was successfully added, false if it already exists
@@ -65,93 +184,559 @@ public class WordRepository extends UnicastRemoteObject implements WordRepositor
     @Override
     public Boolean addWord(String word) throws RemoteException {
 
-        if (!words.contains(word.toLowerCase())) {
-
-            words.add(word.toLowerCase());
-            Collections.sort(words);
-            return true;
+        if (word.length() > MutationLog.MAX_WORD_LENGTH) {
+            throw new RemoteException("Words can be at most " + MutationLog.MAX_WORD_LENGTH + " characters long");
         }
-        
-        return false;
+        return applyMutation(new Mutation(word.toLowerCase(), true));
     }
 
     /**
      * Removes a word from the word repository if it exists.
-     * 
+     *
      * This method checks if the given word exists in the word repository. If
      * the word exists, it is removed from the repository. The method returns
      * true if the word was removed and false if it does not exist in the
      * repository.
-     * 
+     *
      * @param word the word to be removed from the repository
      * @return true if the word was successfully removed, false if it does not exist
      * @throws RemoteException if a remote communication error occurs
      */
     @Override
     public Boolean removeWord(String word) throws RemoteException {
-        return words.remove(word.toLowerCase());
+        return applyMutation(new Mutation(word.toLowerCase(), false));
     }
 
     /**
      * Checks if a word exists in the word repository.
-     * 
+     *
      * This method checks if the given word exists in the word repository. If
      * the word exists, the method returns true; otherwise, it returns false.
-     * 
+     *
      * @param word the word to be checked for in the repository
      * @return true if the word exists in the repository, false if it does not exist
      * @throws RemoteException if a remote communication error occurs
      */
     @Override
     public Boolean checkWord(String word) throws RemoteException {
-        return words.contains(word.toLowerCase());
+        return snapshot.get().contains(word.toLowerCase());
     }
 
     /**
      * Retrieves a random word from the word repository that is at least
      * {@code minLength} characters long.
-     * 
+     *
+     * The index keeps the words ordered by length, so every word that is long
+     * enough sits in one contiguous range and a single random index into that
+     * range picks uniformly among them without probing words that are too short.
+     *
      * @param minLength the minimum length of the word to be retrieved
      * @return a random word from the repository that meets the minimum length
      *         requirement
-     * @throws RemoteException if a remote communication error occurs
+     * @throws RemoteException if no word is long enough, or if a remote
+     *         communication error occurs
      */
     @Override
     public String getWord(int minLength) throws RemoteException {
-        
-        Random random = new Random();
-        int index = random.nextInt(words.size());
-        String word = words.get(index);
 
-        while(word.length() < minLength){
-            index = random.nextInt(words.size());
-            word = words.get(index);
-        }
+        Snapshot current = snapshot.get();
+        String word = current.randomWord(current.base.withMinLength(minLength),
+                current.added.withMinLength(minLength), candidate -> true);
 
+        if (word == null) {
+            throw new RemoteException("No word with at least " + minLength + " letters");
+        }
         return word;
     }
 
     /**
      * Retrieves a random word from the word repository that contains
-     * the given substring.
-     * 
+     * the given substring, using the letter index to narrow the candidates.
+     *
      * @param contains the substring to search for in the word repository
      * @return a random word from the repository that contains the substring
-     * @throws RemoteException if a remote communication error occurs
+     * @throws RemoteException if no word contains the substring, or if a
+     *         remote communication error occurs
      */
     @Override
     public String getWord(String contains) throws RemoteException {
-        
-        Random random = new Random();
-        int index = random.nextInt(words.size());
-        String word = words.get(index);
 
-        while(!word.contains(String.valueOf(contains.toLowerCase()))){
-            index = random.nextInt(words.size());
-            word = words.get(index);
+        String word = randomWordContaining(snapshot.get(), contains.toLowerCase(), candidate -> true);
+
+        if (word == null) {
+            throw new RemoteException("No word contains \"" + contains + "\"");
         }
+        return word;
+    }
 
+    /**
+     * Retrieves a random word that has the given letter at the given
+     * position and a length between {@code minLength} and {@code maxLength}.
+     *
+     * @param letter the letter the word must have
+     * @param position the zero-based position of the letter in the word
+     * @param minLength the minimum length of the word
+     * @param maxLength the maximum length of the word
+     * @return a random word that meets the requirements
+     * @throws RemoteException if no word meets the requirements, or if a
+     *         remote communication error occurs
+     */
+    @Override
+    public String getWord(char letter, int position, int minLength, int maxLength) throws RemoteException {
+
+        char lowerLetter = Character.toLowerCase(letter);
+        Snapshot current = snapshot.get();
+        String word = current.randomWord(current.base.withLetterAt(lowerLetter, position, minLength, maxLength),
+                current.added.withLetterAt(lowerLetter, position, minLength, maxLength), candidate -> true);
+
+        if (word == null) {
+            throw new RemoteException("No word with '" + letter + "' at position " + position
+                    + " and " + minLength + " to " + maxLength + " letters");
+        }
         return word;
     }
 
+    /**
+     * Retrieves the words that match a pattern, where {@code ?} matches any
+     * letter and every other character must match exactly. Only words of the
+     * pattern's length match, so {@code ?a??e} matches "maple" and "table".
+     *
+     * @param pattern the pattern to match
+     * @param limit the maximum number of words to return
+     * @return up to {@code limit} matching words, or an empty list if none match
+     * @throws RemoteException if a remote communication error occurs
+     */
+    @Override
+    public List<String> findWords(String pattern, int limit) throws RemoteException {
+
+        String lowerPattern = pattern.toLowerCase();
+        Snapshot current = snapshot.get();
+        List<String> matches = new ArrayList<>();
+
+        for (WordIndex index : new WordIndex[] {current.base, current.added}) {
+            for (String word : index.matching(lowerPattern)) {
+
+                if (matches.size() >= limit) {
+                    return matches;
+                }
+                if (index == current.added || !current.removed.contains(word)) {
+                    matches.add(word);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Retrieves all of the words for a puzzle in a single call.
+     *
+     * A stem of at least {@code minStemLength} characters is picked first.
+     * Then, for each index in {@code intersectIndexes}, a word containing the
+     * stem's letter at that index is picked. No word is returned twice, and
+     * every word comes from the same version of the dictionary.
+     *
+     * @param minStemLength the minimum length of the stem
+     * @param intersectIndexes the positions in the stem where the other words
+     *        intersect it
+     * @return the stem followed by one word per intersect index, in order
+     * @throws RemoteException if no suitable stem or no unused word for one of
+     *         the intersections exists, or if a remote communication error occurs
+     */
+    @Override
+    public List<String> getPuzzleWords(int minStemLength, List<Integer> intersectIndexes) throws RemoteException {
+
+        Snapshot current = snapshot.get();
+        String stem = current.randomWord(current.base.withMinLength(minStemLength),
+                current.added.withMinLength(minStemLength), candidate -> true);
+
+        if (stem == null) {
+            throw new RemoteException("No word with at least " + minStemLength + " letters");
+        }
+
+        List<String> puzzleWords = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        puzzleWords.add(stem);
+        used.add(stem);
+
+        for (Integer index : intersectIndexes) {
+
+            if (index < 0 || index >= stem.length()) {
+                throw new RemoteException("Intersect index " + index + " is outside the stem \"" + stem + "\"");
+            }
+
+            String letter = String.valueOf(stem.charAt(index));
+            String word = randomWordContaining(current, letter, candidate -> !used.contains(candidate));
+
+            if (word == null) {
+                throw new RemoteException("No unused word contains \"" + letter + "\"");
+            }
+            puzzleWords.add(word);
+            used.add(word);
+        }
+
+        return puzzleWords;
+    }
+
+    /**
+     * Checks if each of the given words exists in the word repository.
+     * All words are checked against the same version of the dictionary.
+     *
+     * @param words the words to be checked for in the repository
+     * @return one result per word, in the same order as the words
+     * @throws RemoteException if a remote communication error occurs
+     */
+    @Override
+    public List<Boolean> checkWords(List<String> words) throws RemoteException {
+
+        Snapshot current = snapshot.get();
+        List<Boolean> results = new ArrayList<>(words.size());
+
+        for (String word : words) {
+            results.add(current.contains(word.toLowerCase()));
+        }
+        return results;
+    }
+
+    /**
+     * Picks a random word from a snapshot that contains the given substring
+     * and passes the given test.
+     *
+     * Every word is indexed under each distinct letter it contains. For a
+     * single letter the answer is one random pick from that letter's list.
+     * For a longer substring the list of its rarest letter is walked from a
+     * random starting point until a word containing the whole substring is
+     * found, so at most one pass over that list is ever made.
+     *
+     * @param current the snapshot to pick from
+     * @param substring the lowercase substring the word must contain
+     * @param matches an additional test the word must pass
+     * @return a matching word, or null if there is none
+     */
+    private String randomWordContaining(Snapshot current, String substring, Predicate<String> matches) {
+
+        List<String> baseCandidates = current.base.all();
+        List<String> addedCandidates = current.added.all();
+
+        for (int i = 0; i < substring.length(); i++) {
+
+            List<String> baseLetterWords = current.base.withLetter(substring.charAt(i));
+            List<String> addedLetterWords = current.added.withLetter(substring.charAt(i));
+            if (baseLetterWords.size() + addedLetterWords.size() < baseCandidates.size() + addedCandidates.size()) {
+                baseCandidates = baseLetterWords;
+                addedCandidates = addedLetterWords;
+            }
+        }
+
+        return current.randomWord(baseCandidates, addedCandidates,
+                candidate -> candidate.contains(substring) && matches.test(candidate));
+    }
+
+    /**
+     * Retrieves the version of the dictionary, which goes up every time
+     * {@link #addWord(String)} or {@link #removeWord(String)} changes it.
+     *
+     * @return the current version of the dictionary
+     * @throws RemoteException if a remote communication error occurs
+     */
+    @Override
+    public Long getVersion() throws RemoteException {
+        return snapshot.get().version;
+    }
+
+    /**
+     * Retrieves a Bloom filter over every word in the current version of the
+     * dictionary. The filter is built once per version and shared by every
+     * client that asks for it.
+     *
+     * @return a filter over the current dictionary
+     * @throws RemoteException if a remote communication error occurs
+     */
+    @Override
+    public WordFilter getWordFilter() throws RemoteException {
+
+        Snapshot current = snapshot.get();
+        WordFilter filter = wordFilter;
+
+        if (filter == null || filter.getVersion() != current.version) {
+            filter = new WordFilter(current.words(current.added.all(), current.removed), current.version);
+            wordFilter = filter;
+        }
+        return filter;
+    }
+
+    /**
+     * Queues a mutation and waits until it has been logged and published in
+     * a new snapshot.
+     *
+     * Writers are serialized on a single lock, but whichever writer holds it
+     * applies every mutation queued so far, logs them with a single fsync and
+     * publishes them together as one new version. Writers that arrived in the
+     * meantime then find their mutation already applied and return without
+     * doing any work of their own. Readers never take the lock.
+     *
+     * @param mutation the mutation to be applied
+     * @return the result of the mutation
+     * @throws RemoteException if the mutation could not be logged
+     */
+    private Boolean applyMutation(Mutation mutation) throws RemoteException {
+
+        pendingMutations.add(mutation);
+
+        synchronized (writeLock) {
+
+            if (!mutation.done) {
+                publishPendingMutations();
+            }
+        }
+
+        compactIfNeeded();
+
+        if (mutation.failure != null) {
+            throw new RemoteException("Could not save change to the dictionary", mutation.failure);
+        }
+        return mutation.result;
+    }
+
+    /**
+     * Applies every queued mutation to the current snapshot, logs the ones
+     * that changed the dictionary and publishes the result as the next
+     * version. If none of them changed it, the current version is kept and
+     * no index is rebuilt. If the log cannot be written, the whole batch
+     * fails and nothing is published. Must be called while holding the write
+     * lock.
+     */
+    private void publishPendingMutations() {
+
+        Snapshot current = snapshot.get();
+        Set<String> added = new HashSet<>(current.added.all());
+        Set<String> removed = new HashSet<>(current.removed);
+        List<Mutation> batch = new ArrayList<>();
+        boolean changed = false;
+
+        Mutation mutation;
+        while ((mutation = pendingMutations.poll()) != null) {
+
+            String word = mutation.word;
+            boolean inBase = current.base.contains(word);
+
+            if (mutation.add) {
+                mutation.result = inBase ? removed.remove(word) : added.add(word);
+            } else {
+                mutation.result = inBase ? removed.add(word) : added.remove(word);
+            }
+
+            if (mutation.result && mutationLog != null) {
+                mutationLog.append(word, mutation.add);
+            }
+            changed |= mutation.result;
+            mutation.done = true;
+            batch.add(mutation);
+        }
+
+        if (!changed) {
+            return;
+        }
+
+        if (mutationLog != null) {
+            try {
+                mutationLog.sync();
+            } catch (IOException e) {
+                for (Mutation failed : batch) {
+                    failed.failure = e;
+                }
+                return;
+            }
+        }
+
+        snapshot.set(new Snapshot(current.base, new WordIndex(added),
+                Collections.unmodifiableSet(removed), current.version + 1));
+    }
+
+    /**
+     * Starts a background compaction if the mutation log has grown past
+     * {@link #COMPACT_THRESHOLD} records and none is already running.
+     */
+    private void compactIfNeeded() {
+
+        MutationLog log = mutationLog;
+        if (log != null && log.size() >= COMPACT_THRESHOLD && compacting.compareAndSet(false, true)) {
+            compactor.execute(this::compact);
+        }
+    }
+
+    /**
+     * Folds the mutation log into the compiled dictionary.
+     *
+     * The log is moved aside under the write lock, together with the
+     * snapshot it describes, and new mutations go to a fresh log from then
+     * on. The snapshot is then compiled into a new dictionary file without
+     * holding the lock, and only once that file is in place is the old log
+     * deleted. A crash at any point leaves either the old dictionary and
+     * both logs, or the new dictionary and a log that replays harmlessly
+     * over it. Finally the new dictionary is mapped and becomes the base
+     * index, so the words added and removed since the last compaction never
+     * grow much past {@link #COMPACT_THRESHOLD}.
+     */
+    private void compact() {
+
+        try {
+            Snapshot compacted;
+            synchronized (writeLock) {
+                // A log left by a failed compaction is kept until one succeeds.
+                if (!Files.exists(Paths.get(COMPACTING_LOG_PATH))) {
+                    mutationLog.rotate(Paths.get(COMPACTING_LOG_PATH));
+                }
+                compacted = snapshot.get();
+            }
+
+            new WordIndex(compacted.words(compacted.added.all(), compacted.removed)).write(Paths.get(COMPILED_PATH));
+            Files.delete(Paths.get(COMPACTING_LOG_PATH));
+            rebase(WordIndex.map(Paths.get(COMPILED_PATH)), compacted);
+            System.out.println("Compacted dictionary version " + compacted.version + " into " + COMPILED_PATH);
+
+        } catch (IOException e) {
+            System.err.println("Error compacting mutation log: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Replaces the base index of the current snapshot with a compacted one.
+     *
+     * Only words added or removed in the compacted snapshot or since then can
+     * differ between the new base and the current version of the dictionary,
+     * so only those words are compared, and the version stays the same.
+     *
+     * @param base the index compiled from the compacted snapshot
+     * @param compacted the snapshot the index was compiled from
+     */
+    private void rebase(WordIndex base, Snapshot compacted) {
+
+        synchronized (writeLock) {
+
+            Snapshot current = snapshot.get();
+            Set<String> changed = new HashSet<>(current.added.all());
+            changed.addAll(current.removed);
+            changed.addAll(compacted.added.all());
+            changed.addAll(compacted.removed);
+
+            Set<String> added = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+            for (String word : changed) {
+
+                boolean present = current.contains(word);
+                if (present && !base.contains(word)) {
+                    added.add(word);
+                } else if (!present && base.contains(word)) {
+                    removed.add(word);
+                }
+            }
+
+            snapshot.set(new Snapshot(base, new WordIndex(added),
+                    Collections.unmodifiableSet(removed), current.version));
+        }
+    }
+
+    /**
+     * An immutable version of the dictionary.
+     *
+     * A large base index is shared between versions, while the words added
+     * and removed since it was built are kept in a small index and set that
+     * are copied on every write. The base index is only replaced when the
+     * mutation log is compacted. Readers load the current snapshot once and
+     * work against it, so they always see one consistent version.
+     */
+    private static class Snapshot {
+
+        private final WordIndex base;
+        private final WordIndex added;
+        private final Set<String> removed;
+        private final long version;
+
+        public Snapshot(WordIndex base) {
+            this(base, WordIndex.EMPTY, Collections.emptySet(), 0);
+        }
+
+        public Snapshot(WordIndex base, WordIndex added, Set<String> removed, long version) {
+            this.base = base;
+            this.added = added;
+            this.removed = removed;
+            this.version = version;
+        }
+
+        public boolean contains(String word) {
+            return added.contains(word) || (base.contains(word) && !removed.contains(word));
+        }
+
+        /**
+         * Lists every word of the base index, minus the removed words, plus
+         * the added words.
+         *
+         * @param added the words added to the base index
+         * @param removed the words removed from the base index
+         * @return the resulting words
+         */
+        public List<String> words(Collection<String> added, Set<String> removed) {
+
+            List<String> words = new ArrayList<>(added);
+            for (String word : base.all()) {
+                if (!removed.contains(word)) {
+                    words.add(word);
+                }
+            }
+            return words;
+        }
+
+        /**
+         * Picks a random word from the base and added candidates that has not
+         * been removed and matches the given test. The candidates are walked
+         * once from a random starting point, so this always terminates.
+         *
+         * @param baseCandidates candidate words from the base index
+         * @param addedCandidates candidate words from the added index
+         * @param matches the test a word must pass to be returned
+         * @return a matching word, or null if there is none
+         */
+        public String randomWord(List<String> baseCandidates, List<String> addedCandidates, Predicate<String> matches) {
+
+            int total = baseCandidates.size() + addedCandidates.size();
+            if (total == 0) {
+                return null;
+            }
+
+            int start = ThreadLocalRandom.current().nextInt(total);
+            for (int i = 0; i < total; i++) {
+
+                int index = (start + i) % total;
+                String word = index < baseCandidates.size()
+                        ? baseCandidates.get(index)
+                        : addedCandidates.get(index - baseCandidates.size());
+
+                if (!removed.contains(word) && matches.test(word)) {
+                    return word;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A pending add or remove, with its result once it has been applied, or
+     * the error that kept it from being logged.
+     */
+    private static class Mutation {
+
+        private final String word;
+        private final boolean add;
+        private boolean done;
+        private Boolean result;
+        private IOException failure;
+
+        public Mutation(String word, boolean add) {
+            this.word = word;
+            this.add = add;
+        }
+    }
+
 }
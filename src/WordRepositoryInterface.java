@@ -1,4 +1,5 @@
 import java.rmi.*;
+import java.util.List;
 
 public interface WordRepositoryInterface extends Remote {
 
@@ -7,5 +8,11 @@ public interface WordRepositoryInterface extends Remote {
     public Boolean checkWord(String word) throws RemoteException;
     public String getWord(int minLength) throws RemoteException;
     public String getWord(String contains) throws RemoteException;
+    public String getWord(char letter, int position, int minLength, int maxLength) throws RemoteException;
+    public List<String> findWords(String pattern, int limit) throws RemoteException;
+    public List<String> getPuzzleWords(int minStemLength, List<Integer> intersectIndexes) throws RemoteException;
+    public List<Boolean> checkWords(List<String> words) throws RemoteException;
+    public Long getVersion() throws RemoteException;
+    public WordFilter getWordFilter() throws RemoteException;
 
 }